@@ -0,0 +1,118 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Regexes and texts for the benchmarks. Everything is generated from fixed seeds, so runs on different
+ * machines and commits see the same inputs.
+ */
+public class BenchmarkInputs {
+
+    public enum Family {
+        // sixteen random six letter words
+        ALTERNATION(alternation(), null),
+        // stars inside stars, the epsilon NFA has long epsilon paths and cycles
+        STAR_NESTED("((a(bc)*)*(d(e|f)*g)*)*h(i(jk)*)*l", "abcdeghl"),
+        // a single random literal of 32 letters
+        LONG_LITERAL(word(new Random(3), 32), null);
+
+        public final String regex;
+        // a word of the language that is planted into the texts
+        public final String sample;
+
+        Family(String regex, String sample) {
+            this.regex = regex;
+            this.sample = sample != null ? sample : firstWord(regex);
+        }
+    }
+
+    private static String alternation() {
+        Random random = new Random(2);
+        StringBuilder regex = new StringBuilder("(");
+        for(int i = 0; i < 16; i++) {
+            if(i > 0) {
+                regex.append('|');
+            }
+            regex.append(word(random, 6));
+        }
+        return regex.append(')').toString();
+    }
+
+    private static String word(Random random, int length) {
+        StringBuilder word = new StringBuilder();
+        for(int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(26)));
+        }
+        return word.toString();
+    }
+
+    private static String firstWord(String regex) {
+        int start = regex.startsWith("(") ? 1 : 0;
+        int end = start;
+        while(end < regex.length() && Character.isLetter(regex.charAt(end))) {
+            end++;
+        }
+        return regex.substring(start, end);
+    }
+
+    // regexpToTree only reads files, so the regex is written to a temporary one
+    public static CommonTree parse(String regex) {
+        try {
+            Path file = write(regex);
+            try {
+                return Main.regexpToTree(file.toString());
+            } finally {
+                Files.delete(file);
+            }
+        } catch(Exception e) {
+            throw new IllegalStateException("Cannot parse " + regex, e);
+        }
+    }
+
+    public static Path write(String regex) {
+        try {
+            Path file = Files.createTempFile("afl-bench", ".regex");
+            Files.writeString(file, regex + "\n");
+            return file;
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Random lowercase letters in which copies of sample are planted, so that about density of the characters
+     * belong to a planted match.
+     */
+    public static String text(int size, double density, String sample, long seed) {
+        Random random = new Random(seed);
+        char[] text = new char[size];
+        for(int i = 0; i < size; i++) {
+            text[i] = (char) ('a' + random.nextInt(26));
+        }
+        int copies = (int) (size * density / sample.length());
+        for(int i = 0; i < copies && size >= sample.length(); i++) {
+            int at = random.nextInt(size - sample.length() + 1);
+            sample.getChars(0, sample.length(), text, at);
+        }
+        return new String(text);
+    }
+
+    // the automaton of a single word, built directly instead of through a regex file
+    public static Automaton wordAutomaton(String word) {
+        Automaton automaton = Automaton.fromSymbol(word.charAt(0));
+        for(int i = 1; i < word.length(); i++) {
+            automaton.concat(Automaton.fromSymbol(word.charAt(i)));
+        }
+        return automaton.removeEpsilons();
+    }
+
+    public static String randomWord(int length, long seed) {
+        return word(new Random(seed), length);
+    }
+}
@@ -0,0 +1,69 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The phases from the regex file to the prefixed automaton of task 1. removeEpsilons and toDFA build the table
+ * of their input, which the automaton caches, so they are measured together with the construction of the input;
+ * epsilonNFA and fromRegex are the baselines to subtract.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstructionBenchmark {
+
+    @Param
+    public BenchmarkInputs.Family family;
+
+    private Path file;
+    private CommonTree ast;
+
+    @Setup
+    public void setUp() {
+        file = BenchmarkInputs.write(family.regex);
+        ast = BenchmarkInputs.parse(family.regex);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public CommonTree regexpToTree() throws Exception {
+        return Main.regexpToTree(file.toString());
+    }
+
+    @Benchmark
+    public Automaton epsilonNFA() {
+        return Automaton.epsilonNFAFromRegex(ast);
+    }
+
+    @Benchmark
+    public Automaton removeEpsilons() {
+        return Automaton.epsilonNFAFromRegex(ast).removeEpsilons();
+    }
+
+    @Benchmark
+    public Automaton fromRegex() {
+        return Automaton.fromRegex(ast);
+    }
+
+    @Benchmark
+    public Automaton toDFA() {
+        return Automaton.fromRegex(ast).toDFA();
+    }
+
+    @Benchmark
+    public Automaton fromRegexWithPrefix() {
+        return Automaton.fromRegexWithPrefix(ast);
+    }
+}
@@ -0,0 +1,67 @@
+package de.tum.in.afl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * toEditAutomaton(k) on the minimized DFA of every family, and removeEpsilons on the edit automaton of a single
+ * word of growing length, whose cost should grow linearly with states times alphabet.
+ * toEditAutomaton works in place, so every invocation runs it on a fresh copy of the DFA backed by its table,
+ * which includes filling in the states and transitions of the copy. removeEpsilons leaves its input alone apart
+ * from caching its table, which is built once in the setup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditAutomatonBenchmark {
+
+    @State(Scope.Thread)
+    public static class Families {
+        @Param
+        public BenchmarkInputs.Family family;
+
+        @Param({"0", "1", "2", "3", "4"})
+        public int editDistance;
+
+        private TransitionTable minimalDFA;
+
+        @Setup
+        public void setUp() {
+            minimalDFA = Automaton.fromRegex(BenchmarkInputs.parse(family.regex)).toDFA().minimize().table();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Words {
+        @Param({"50", "200", "800"})
+        public int length;
+
+        @Param({"1", "2"})
+        public int editDistance;
+
+        private Automaton editAutomaton;
+
+        @Setup
+        public void setUp() {
+            editAutomaton = BenchmarkInputs.wordAutomaton(BenchmarkInputs.randomWord(length, 5)).toDFA().minimize();
+            editAutomaton.toEditAutomaton(editDistance);
+            editAutomaton.concat(Automaton.fromEpsilon());
+            editAutomaton.table();
+        }
+    }
+
+    @Benchmark
+    public Automaton toEditAutomaton(Families input) {
+        Automaton dfa = Automaton.fromTable(input.minimalDFA, false, true);
+        dfa.toEditAutomaton(input.editDistance);
+        return dfa;
+    }
+
+    @Benchmark
+    public Automaton removeEpsilonsScaling(Words input) {
+        return input.editAutomaton.removeEpsilons();
+    }
+}
@@ -0,0 +1,71 @@
+package de.tum.in.afl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanning synthetic texts of growing size and match density. The whole text is scanned with stopAtMatch
+ * turned off, so the time does not depend on where the first match is.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatchingBenchmark {
+
+    @Param
+    public BenchmarkInputs.Family family;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    // share of the text that is covered by planted matches
+    @Param({"0", "0.001", "0.01"})
+    public double density;
+
+    private String text;
+    private Automaton prefixed;
+    private Engine engine;
+    private EditDistanceMatcher shortest;
+    private PrintStream out;
+
+    @Setup
+    public void setUp() {
+        var ast = BenchmarkInputs.parse(family.regex);
+        text = BenchmarkInputs.text(size, density, family.sample, 7);
+        prefixed = Automaton.fromRegexWithPrefix(ast);
+        prefixed.table();
+        engine = prefixed.engine();
+        shortest = EditDistanceMatcher.search(Automaton.fromRegex(ast), 0);
+        // printShortestMatchStartAndEnd writes to System.out, which must not end up in the results
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public int run() {
+        return prefixed.run(text, false);
+    }
+
+    @Benchmark
+    public int engineRun() {
+        return engine.run(text, false);
+    }
+
+    @Benchmark
+    public Match printShortestMatchStartAndEnd() {
+        Match match = shortest.shortestMatch(text);
+        Main.printShortestMatchStartAndEnd(match);
+        return match;
+    }
+}
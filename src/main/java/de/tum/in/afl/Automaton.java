@@ -1,20 +1,42 @@
 package de.tum.in.afl;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
-public class Automaton {
+public class Automaton implements Engine {
 
     private boolean isEpsilon = true;
     private boolean isDeterministic = false;
-    private static int stateCount = 1;
+    // labels of new states, automata may be built on several threads at once
+    private static final AtomicInteger stateCount = new AtomicInteger(1);
+
+    public static final int DEFAULT_MAX_DFA_STATES = 1 << 20;
 
     static class State {
-       final String label;
+        private String label;
+        private Supplier<String> lazyLabel;
 
         State(String label) {
             this.label = label;
         }
+
+        // for states whose label is expensive to build and rarely needed
+        State(Supplier<String> label) {
+            this.lazyLabel = label;
+        }
+
+        String label() {
+            if(label == null) {
+                label = lazyLabel.get();
+                lazyLabel = null;
+            }
+            return label;
+        }
     }
 
     static class Transition implements Comparable<Transition> {
@@ -43,38 +65,104 @@ public class Automaton {
                 res = Integer.compare(to.hashCode(), other.to.hashCode());
             }
             if(res == 0) {
-                res = Integer.compare(symbol.hashCode(), other.symbol.hashCode());
+                res = Long.compare(symbol.key(), other.symbol.key());
             }
             return res;
         }
     }
 
     static abstract class Symbol {
+        static final Epsilon EPSILON = new Epsilon();
+
+        // orders the symbols of a state's transitions, epsilon first and ranges by their bounds
+        abstract long key();
+
         @Override
         public boolean equals(Object other) {
-            if(this instanceof Epsilon && other instanceof Epsilon) return true;
-            if(this instanceof Epsilon || other instanceof Epsilon) return false;
-            if(this instanceof  Letter && other instanceof Letter)
-                return ((Letter)this).value == ((Letter)other).value;
-            return false;
+            return other instanceof Symbol && key() == ((Symbol) other).key();
         }
 
-        static class Letter extends Symbol {
-            final char value;
-            Letter(char value) {
-                this.value = value;
+        @Override
+        public int hashCode() {
+            return Long.hashCode(key());
+        }
+
+        // the characters first..last, a letter of the regex is the range of just that letter
+        static class Range extends Symbol {
+            static final Range ANY = new Range(Character.MIN_VALUE, Character.MAX_VALUE);
+
+            private static final Range[] ascii = new Range[128];
+            static {
+                for(char c = 0; c < ascii.length; c++) {
+                    ascii[c] = new Range(c, c);
+                }
+            }
+
+            final char first;
+            final char last;
+
+            Range(char first, char last) {
+                if(first > last) {
+                    throw new IllegalArgumentException("Empty range " + (int) first + "-" + (int) last);
+                }
+                this.first = first;
+                this.last = last;
+            }
+
+            static Range of(char c) {
+                return c < ascii.length ? ascii[c] : new Range(c, c);
+            }
+
+            static Range of(char first, char last) {
+                return first == last ? of(first) : new Range(first, last);
+            }
+
+            boolean contains(char c) {
+                return first <= c && c <= last;
+            }
+
+            // the characters outside the range, as up to two ranges
+            List<Range> complement() {
+                ArrayList<Range> result = new ArrayList<>(2);
+                if(first > Character.MIN_VALUE) {
+                    result.add(of(Character.MIN_VALUE, (char) (first - 1)));
+                }
+                if(last < Character.MAX_VALUE) {
+                    result.add(of((char) (last + 1), Character.MAX_VALUE));
+                }
+                return result;
             }
 
             @Override
-            public int hashCode() {
-               return value;
+            long key() {
+                return ((long) first << 16) | last;
+            }
+
+            @Override
+            public String toString() {
+                if(first == last) {
+                    return show(first);
+                }
+                return "[" + show(first) + "-" + show(last) + "]";
+            }
+
+            private static String show(char c) {
+                if(c > ' ' && c < 0x7f && c != '"' && c != '\\') {
+                    return String.valueOf(c);
+                }
+                return String.format("U+%04X", (int) c);
             }
         }
 
         static class Epsilon extends Symbol {
             @Override
-            public int hashCode() {
-                return 1024;
+            long key() {
+                return -1;
+            }
+
+            @Override
+            public String toString() {
+                return "/";
             }
         }
     }
@@ -83,14 +171,66 @@ public class Automaton {
     public TreeSet<Transition> transitions = new TreeSet<>();
     public State initialState;
     public HashSet<State> finalStates = new HashSet<>();
+    private TransitionTable table;
+    // automata loaded from a file start out with only their table, see materialize()
+    private boolean tableOnly = false;
+
+    // the table is built lazily and dropped by every operation that changes the automaton
+    public TransitionTable table() {
+        if(table == null) {
+            table = new TransitionTable(this);
+        }
+        return table;
+    }
+
+    // an automaton backed by a loaded table, states, finalStates and transitions stay empty until an
+    // operation needs them, so running it allocates nothing per transition
+    static Automaton fromTable(TransitionTable table, boolean isEpsilon, boolean isDeterministic) {
+        Automaton automaton = new Automaton();
+        automaton.table = table;
+        automaton.initialState = table.states[table.initial];
+        automaton.isEpsilon = isEpsilon;
+        automaton.isDeterministic = isDeterministic;
+        automaton.tableOnly = true;
+        return automaton;
+    }
+
+    boolean isEpsilon() {
+        return isEpsilon;
+    }
+
+    boolean isDeterministic() {
+        return isDeterministic;
+    }
+
+    // fills in the state and transition sets of a table-only automaton
+    private void materialize() {
+        if(!tableOnly) {
+            return;
+        }
+        tableOnly = false;
+        states.addAll(Arrays.asList(table.states));
+        for(int s = 0; s < table.size(); s++) {
+            if(table.isFinal[s]) {
+                finalStates.add(table.states[s]);
+            }
+            for(int e = table.offsets[s]; e < table.offsets[s + 1]; e++) {
+                transitions.add(new Transition(table.states[s], table.symbol(s, e), table.states[table.targets[e]]));
+            }
+        }
+    }
+
+    private static State newState() {
+        return new State(Integer.toString(stateCount.getAndIncrement()));
+    }
 
     public static Automaton fromSymbol(char c) {
         Automaton nfa = empty();
         State start = nfa.initialState;
-        State end = new State("" + stateCount++);
+        State end = newState();
         nfa.states.add(end);
         nfa.finalStates.add(end);
-        nfa.transitions.add(new Transition(start, new Symbol.Letter(c), end));
+        nfa.transitions.add(new Transition(start, Symbol.Range.of(c), end));
         return nfa;
     }
 
@@ -102,83 +242,94 @@ public class Automaton {
 
     public static Automaton empty() {
         Automaton nfa = new Automaton();
-        State start = new State("" + stateCount++);
+        State start = newState();
         nfa.states.add(start);
         nfa.initialState = start;
         return nfa;
     }
 
+    // loops on every character, so a pattern behind it matches anywhere in the input
     public static Automaton universal() {
         Automaton nfa = fromEpsilon();
-        for(char c = 'A'; c <= 'Z'; c++) {
-            nfa.transitions.add(new Transition(nfa.initialState, new Symbol.Letter(c), nfa.initialState));
-        }
-        for(char c = 'a'; c <= 'z'; c++) {
-            nfa.transitions.add(new Transition(nfa.initialState, new Symbol.Letter(c), nfa.initialState));
-        }
+        nfa.transitions.add(new Transition(nfa.initialState, Symbol.Range.ANY, nfa.initialState));
         return nfa;
     }
 
-    public int run(String word) {
-        return run(word, false);
+    // picks the fastest engine that can handle this (epsilon-free) automaton
+    public Engine engine() {
+        if(BitParallelEngine.fits(this)) {
+            return new BitParallelEngine(this);
+        }
+        return new LazyDFA(this);
     }
 
-    public int run(String word, boolean stopAtMatch) {
-        HashMap<State, HashSet<Transition>> cache = new HashMap<>();
-        HashSet<State> currentStates = new HashSet<>();
-
-        currentStates.add(initialState);
+    // enumerates the matches of this (epsilon-free) pattern automaton in a text
+    public Matcher matcher(CharSequence text, Matcher.Mode mode) {
+        return new Matcher(this, 0, mode).reset(text);
+    }
 
-        if(finalStates.contains(initialState)) {
-            return 0;
-        }
+    public int run(CharSequence word) {
+        return run(word, false);
+    }
 
-        for(int i = 0; i < word.length(); i++) {
-            var nextStates = new HashSet<State>();
+    @Override
+    public int run(CharSequence word, boolean stopAtMatch) {
+        TransitionTable table = table();
+        Stats.RunTimer run = Stats.run("nfa");
 
-//            System.out.print("Step " + i + ": ");
+        if(table.isFinal[table.initial]) {
+            return run.end(0, 0, 1, 0, 0);
+        }
 
-            for(var s: currentStates) {
-//                System.out.print(s.label + ", ");
-                HashSet<Transition> trans;
-                if(cache.containsKey(s)) {
-                    trans = cache.get(s);
-                } else {
-                    trans = new HashSet<>();
-                    for(var t: transitions) {
-                        if(t.from == s) {
-                            trans.add(t);
-                        }
-                    }
-                    cache.put(s, trans);
+        int[] currentStates = new int[table.size()];
+        int[] nextStates = new int[table.size()];
+        int[] seen = new int[table.size()];
+        int currentSize = 1;
+        currentStates[0] = table.initial;
+        int peak = 1;
+        long examined = 0;
+
+        for(int i = 0; MappedText.hasCharAt(word, i); i++) {
+            char c = table.classes.of(word.charAt(i));
+            int nextSize = 0;
+            int step = i + 1;
+
+            for(int k = 0; k < currentSize; k++) {
+                int s = currentStates[k];
+                if(table.hasEpsilons(s)) {
+                    throw new AssertionError("Asserting non-Epsilon NFA! Did you forget to call removeEpsilons() ?");
                 }
-                for(var t : trans)  {
-                    if(t.symbol instanceof Symbol.Epsilon) {
-                        throw new AssertionError("Asserting non-Epsilon NFA! Did you forget to call removeEpsilons() ?");
+                int end = table.offsets[s + 1];
+                for(int e = table.firstEdge(s, c); e < end && table.symbols[e] == c; e++) {
+                    examined++;
+                    int to = table.targets[e];
+                    if(seen[to] != step) {
+                        seen[to] = step;
+                        nextStates[nextSize++] = to;
                     }
-                    if(t.symbol instanceof Symbol.Letter) {
-                        if(((Symbol.Letter) t.symbol).value == word.charAt(i)) {
-                            nextStates.add(t.to);
-                            if(stopAtMatch && finalStates.contains(t.to)) {
-                                return i+1;
-                            }
-                        }
+                    if(stopAtMatch && table.isFinal[to]) {
+                        return run.end(i+1, i+1, Math.max(peak, nextSize), examined, 0);
                     }
                 }
             }
-//            System.out.println();
+            int[] tmp = currentStates;
             currentStates = nextStates;
+            nextStates = tmp;
+            currentSize = nextSize;
+            peak = Math.max(peak, currentSize);
         }
-        currentStates.retainAll(finalStates);
-        if(currentStates.size() > 0) {
-            return word.length();
-        }
-        else {
-            return -1;
+        for(int k = 0; k < currentSize; k++) {
+            if(table.isFinal[currentStates[k]]) {
+                return run.end(word.length(), word.length(), peak, examined, 0);
+            }
         }
+        return run.end(-1, word.length(), peak, examined, 0);
     }
 
     public void concat(Automaton other) {
+        materialize();
+        other.materialize();
+        table = null;
         for (var s : finalStates) {
             transitions.add(new Transition(s, new Symbol.Epsilon(), other.initialState));
         }
@@ -188,7 +339,10 @@ public class Automaton {
     }
 
     public void union(Automaton other) {
-        State newStart = new State("" + stateCount++);
+        materialize();
+        other.materialize();
+        table = null;
+        State newStart = newState();
         transitions.add(new Transition(newStart, new Symbol.Epsilon(), this.initialState));
         transitions.add(new Transition(newStart, new Symbol.Epsilon(), other.initialState));
 
@@ -201,9 +355,11 @@ public class Automaton {
     }
 
     public void iteration() {
-        State newStart = new State("" + stateCount++);
-        State newEnd = new State("" + stateCount++);
-        State newIter = new State("" + stateCount++);
+        materialize();
+        table = null;
+        State newStart = newState();
+        State newEnd = newState();
+        State newIter = newState();
 
         transitions.add(new Transition(newStart, new Symbol.Epsilon(), newIter));
         transitions.add(new Transition(newIter, new Symbol.Epsilon(), this.initialState));
@@ -221,53 +377,63 @@ public class Automaton {
     }
 
     public Automaton removeEpsilons() {
+        TransitionTable table = table();
+        EpsilonClosures closures = new EpsilonClosures(table);
         Automaton nfa = new Automaton();
         nfa.initialState = initialState;
         nfa.states.add(initialState);
-        if(finalStates.contains(initialState)) {
-            nfa.finalStates.add(initialState);
-        }
-        ArrayList<Transition> transitions_p = new ArrayList<>();
-        ArrayList<Transition> worklist = new ArrayList<>();
-        for(var t : transitions) {
-            if(t.from == initialState) {
-                worklist.add(t);
+        for(int s : closures.of(table.initial)) {
+            if(table.isFinal[s]) {
+                nfa.finalStates.add(initialState);
+                break;
             }
         }
 
-        while(worklist.size() > 0) {
-            var t = worklist.remove(0);
-            if(t.symbol instanceof Symbol.Letter) {
-                nfa.states.add(t.to);
-                nfa.transitions.add(t);
-                if(finalStates.contains(t.to)) {
-                    nfa.finalStates.add(t.to);
-                }
-                for(var t_ : transitions) {
-                    if(t_.from != t.to) {
-                        continue;
-                    }
-                    Transition newTransition = new Transition(t.to, t_.symbol, t_.to);
-                    if((t_.symbol instanceof Symbol.Epsilon)) {
-                        newTransition = new Transition(t.from, t.symbol, t_.to);
-                    }
-                    if(!(nfa.transitions.contains(newTransition))) {
-                        worklist.add(newTransition);
+        // the initial state reads the letters of its whole closure, all other states only their own ones,
+        // and every letter leads into the whole closure of its target. The edges are grouped by target, so
+        // neighbouring classes leading to the same state become one range
+        int n = table.size();
+        boolean[] reached = new boolean[n];
+        int[] worklist = new int[n];
+        int size = 0;
+        reached[table.initial] = true;
+        worklist[size++] = table.initial;
+        long[] edges = new long[16];
+        int[] single = new int[1];
+        for(int w = 0; w < size; w++) {
+            int p = worklist[w];
+            int[] sources = single;
+            if(p == table.initial) {
+                sources = closures.of(p);
+            } else {
+                single[0] = p;
+            }
+            int count = 0;
+            for(int s : sources) {
+                for(int e = table.letterStart[s]; e < table.offsets[s + 1]; e++) {
+                    for(int r : closures.of(table.targets[e])) {
+                        if(count == edges.length) {
+                            edges = Arrays.copyOf(edges, count * 2);
+                        }
+                        edges[count++] = ((long) r << 32) | table.symbols[e];
                     }
                 }
             }
-            else { // t.to Epsilon t.from
-                transitions_p.add(t);
-                if(finalStates.contains(t.to)) {
-                    nfa.finalStates.add(t.from);
+            Arrays.sort(edges, 0, count);
+            for(int i = 0; i < count; ) {
+                int r = (int) (edges[i] >>> 32);
+                int first = (char) edges[i];
+                int last = first;
+                for(i++; i < count && (int) (edges[i] >>> 32) == r && (char) edges[i] <= last + 1; i++) {
+                    last = (char) edges[i];
                 }
-                for(var t_ :transitions) {
-                    if(t_.from != t.to) {
-                        continue;
-                    }
-                    Transition newTransition = new Transition(t.from, t_.symbol, t_.to);
-                    if(!(nfa.transitions.contains(newTransition) && transitions_p.contains(newTransition))) {
-                        worklist.add(newTransition);
+                nfa.transitions.add(new Transition(table.states[p], table.classes.symbol(first, last), table.states[r]));
+                if(!reached[r]) {
+                    reached[r] = true;
+                    worklist[size++] = r;
+                    nfa.states.add(table.states[r]);
+                    if(table.isFinal[r]) {
+                        nfa.finalStates.add(table.states[r]);
                     }
                 }
             }
@@ -277,62 +443,51 @@ public class Automaton {
     }
 
     public Automaton toDFA() {
+        return toDFA(DEFAULT_MAX_DFA_STATES, Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    // gives up with a StateExplosionException as soon as the DFA outgrows maxStates or (roughly) maxBytes,
+    // the levels are expanded on the common pool, which concurrent constructions (e.g. of Batch workers) share
+    public Automaton toDFA(int maxStates, long maxBytes) {
+        return toDFA(maxStates, maxBytes, ForkJoinPool.commonPool());
+    }
+
+    // the subsets of every level are expanded on the pool, see SubsetConstruction
+    public Automaton toDFA(int maxStates, long maxBytes, ForkJoinPool pool) {
+        return toDFA(maxStates, Long.MAX_VALUE, maxBytes, pool);
+    }
+
+    // also gives up once the transition table of the DFA has more than maxTransitions edges
+    public Automaton toDFA(int maxStates, long maxTransitions, long maxBytes, ForkJoinPool pool) {
         if(isEpsilon) {
             throw new AssertionError("Can't convert Epsilon-NFA to DFA. Did you forget to call removeEpsilon() ?");
         }
-        Automaton dfa = new Automaton();
-        HashMap<HashSet<State>, State> stateMap = new HashMap<>();
-        ArrayList<HashSet<State>> workList = new ArrayList<>();
-
-        dfa.initialState = initialState;
-        HashSet<State> nfaInitialSet = new HashSet<>();
-        nfaInitialSet.add(initialState);
-        stateMap.put(nfaInitialSet, initialState);
-
-        workList.add(nfaInitialSet);
-        while(!workList.isEmpty()) {
-            HashSet<State> q = workList.remove(0);
-            dfa.states.add(stateMap.get(q));
-            for(var s : q) {
-                if (finalStates.contains(s)) {
-                    dfa.finalStates.add(stateMap.get(q));
-                    break;
-                }
-            }
+        Automaton dfa = SubsetConstruction.determinize(this, maxStates, maxTransitions, maxBytes, pool);
+        dfa.isEpsilon = false;
+        dfa.isDeterministic = true;
+        return dfa;
+    }
 
-            HashMap<Symbol, HashSet<State>> qpp = new HashMap<>();
-            for(var t : transitions) {
-                if(!q.contains(t.from)) {
-                    continue;
-                }
-                if(!qpp.containsKey(t.symbol)) {
-                    qpp.put(t.symbol, new HashSet<>());
-                }
-                qpp.get(t.symbol).add(t.to);
-            }
-            for (var kvp : qpp.entrySet()) {
-                if(!stateMap.containsKey(kvp.getValue())) {
-                    State newState = new State(kvp.getValue().stream().map(x -> x.label).collect(Collectors.joining(",")));
-                    stateMap.put(kvp.getValue(), newState);
-                }
-                if(!dfa.states.contains(stateMap.get(kvp.getValue()))) {
-                    workList.add(kvp.getValue());
-                }
-                dfa.transitions.add(new Transition(stateMap.get(q), kvp.getKey(), stateMap.get(kvp.getValue())));
-            }
+    public Automaton minimize() {
+        if(!isDeterministic) {
+            throw new AssertionError("Can only minimize a DFA. Did you forget to call toDFA() ?");
         }
+        Automaton dfa = Hopcroft.minimize(this);
         dfa.isEpsilon = false;
         dfa.isDeterministic = true;
         return dfa;
     }
 
     public void toEditAutomaton(int editDistance) {
+        materialize();
+        table = null;
         HashMap<State, State[]> editStates = new HashMap<>();
         for(var s : states) {
             var a = new State[editDistance+1];
             a[0] = s;
             for(var i = 1; i <= editDistance; i++) {
-                a[i] = new State(s.label + "|" + i);
+                int layer = i;
+                a[i] = new State(() -> s.label() + "|" + layer);
             }
             editStates.put(s, a);
         }
@@ -350,16 +505,9 @@ public class Automaton {
                 if(i != editDistance) {
                     // deletion:
                     newTransitions.add(new Transition(fromEdits[i], new Symbol.Epsilon(), toEdits[i+1]));
-                    // replacement:
-                    for(char a = 'a'; a <= 'z'; a++){
-                        if(a != ((Symbol.Letter)t.symbol).value) {
-                            newTransitions.add(new Transition(fromEdits[i], new Symbol.Letter(a), toEdits[i + 1]));
-                        }
-                    }
-                    for(char a = 'A'; a <= 'Z'; a++) {
-                        if(a != ((Symbol.Letter)t.symbol).value) {
-                            newTransitions.add(new Transition(fromEdits[i], new Symbol.Letter(a), toEdits[i + 1]));
-                        }
+                    // replacement, by any character the edge does not read:
+                    for(var other : ((Symbol.Range) t.symbol).complement()) {
+                        newTransitions.add(new Transition(fromEdits[i], other, toEdits[i + 1]));
                     }
                 }
             }
@@ -369,13 +517,7 @@ public class Automaton {
         for(var s : states) {
            State[] edits = editStates.get(s);
            for(int i = 0; i < editDistance; i++) {
-
-               for(char a = 'a'; a <= 'z'; a++) {
-                   newTransitions.add(new Transition(edits[i], new Symbol.Letter(a), edits[i + 1]));
-               }
-               for(char a = 'A'; a <= 'Z'; a++) {
-                   newTransitions.add(new Transition(edits[i], new Symbol.Letter(a), edits[i + 1]));
-               }
+               newTransitions.add(new Transition(edits[i], Symbol.Range.ANY, edits[i + 1]));
            }
         }
 
@@ -392,6 +534,7 @@ public class Automaton {
     }
 
     public Automaton backwardsMatchAutomaton() {
+        materialize();
         Automaton newNFA = new Automaton();
         newNFA.states = states;
 
@@ -406,8 +549,11 @@ public class Automaton {
 
         newNFA.finalStates.add(initialState);
 
-        for(var t : transitions) {
-            newNFA.transitions.add(new Transition(t.to, t.symbol, t.from));
+        TransitionTable table = table();
+        for(int s = 0; s < table.size(); s++) {
+            for(int e = table.offsets[s]; e < table.offsets[s + 1]; e++) {
+                newNFA.transitions.add(new Transition(table.states[table.targets[e]], table.symbol(s, e), table.states[s]));
+            }
         }
 
         return newNFA;
@@ -424,7 +570,34 @@ public class Automaton {
         return epsilonNFAFromRegex(ast).removeEpsilons();
     }
 
+    // the same languages as fromRegex and fromRegexWithPrefix, but as DFAs built with derivatives, see Derivatives
+    public static Automaton fromRegexByDerivatives(org.antlr.runtime.tree.CommonTree ast) {
+        return fromRegexByDerivatives(ast, DEFAULT_MAX_DFA_STATES, Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    // gives up with a StateExplosionException after maxStates states or (roughly) maxBytes
+    public static Automaton fromRegexByDerivatives(org.antlr.runtime.tree.CommonTree ast, int maxStates, long maxBytes) {
+        return byDerivatives(ast, false, maxStates, maxBytes);
+    }
+
+    public static Automaton fromRegexWithPrefixByDerivatives(org.antlr.runtime.tree.CommonTree ast) {
+        return byDerivatives(ast, true, DEFAULT_MAX_DFA_STATES, Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    private static Automaton byDerivatives(org.antlr.runtime.tree.CommonTree ast, boolean prefixed, int maxStates,
+                                           long maxBytes) {
+        Automaton dfa = Derivatives.dfa(ast, prefixed, maxStates, maxBytes);
+        dfa.isEpsilon = false;
+        dfa.isDeterministic = true;
+        return dfa;
+    }
+
     public static Automaton epsilonNFAFromRegex(org.antlr.runtime.tree.CommonTree ast) {
+        return thompson(RegexSimplifier.simplify(ast));
+    }
+
+    // Thompson's construction, node by node
+    static Automaton thompson(org.antlr.runtime.tree.CommonTree ast) {
         int token = ast.getToken().getType();
 
         Automaton current = null;
@@ -433,7 +606,7 @@ public class Automaton {
             //multi-ary connectives
             case RegexpParser.OR:
                 for (int i = 0; i < ast.getChildCount(); i++) {
-                    Automaton next = Automaton.epsilonNFAFromRegex((org.antlr.runtime.tree.CommonTree) ast.getChild(i));
+                    Automaton next = thompson((org.antlr.runtime.tree.CommonTree) ast.getChild(i));
                     if(current == null) {
                         current = next;
                     }
@@ -444,7 +617,7 @@ public class Automaton {
                 break;
             case RegexpParser.CONCATENATION:
                 for (int i = 0; i < ast.getChildCount(); i++) {
-                    Automaton next = Automaton.epsilonNFAFromRegex((org.antlr.runtime.tree.CommonTree) ast.getChild(i));
+                    Automaton next = thompson((org.antlr.runtime.tree.CommonTree) ast.getChild(i));
                     if(current == null) {
                         current = next;
                     }
@@ -456,7 +629,7 @@ public class Automaton {
 
             //unary operators
             case RegexpParser.STAR:
-                current = Automaton.epsilonNFAFromRegex((org.antlr.runtime.tree.CommonTree) ast.getChild(0));
+                current = thompson((org.antlr.runtime.tree.CommonTree) ast.getChild(0));
                 current.iteration();
                 break;
 
@@ -478,26 +651,14 @@ public class Automaton {
         return current;
     }
 
+    // for small automata, large ones are better written with AutomatonExport
     public String toDOT() {
-        StringBuilder dot = new StringBuilder("digraph finite_state_machine {\n  rankdir=LR;\n");
-        for (var s : states) {
-            String shape = "circle";
-            if(finalStates.contains(s)) {
-                shape = "doublecircle";
-            }
-            dot.append("  node [shape = ").append(shape).append(", label=\"").append(s.label).append("\"] \"").append(s.hashCode()).append("\";\n");
-        }
-        dot.append("  node [shape = point] startstatename;\n");
-        dot.append("  startstatename -> \"").append(initialState.hashCode()).append("\";\n");
-
-        for (var t : transitions) {
-            char label = '/'; // "\u03B5";
-            if (t.symbol instanceof Symbol.Letter) {
-                label = ((Symbol.Letter) t.symbol).value;
-            }
-            dot.append("  \"").append(t.from.hashCode()).append("\" -> \"").append(t.to.hashCode()).append("\" [label=\"").append(label).append("\"];\n");
+        StringWriter dot = new StringWriter();
+        try {
+            new AutomatonExport(this).write(AutomatonExport.Format.DOT, dot);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
         }
-        dot.append("}");
         return dot.toString();
     }
 }
@@ -0,0 +1,222 @@
+package de.tum.in.afl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Writes an automaton as a DOT or GraphML graph while walking its transition table, so even an automaton with
+ * millions of transitions is exported without building the document in memory. States are numbered q0, q1, ...
+ * in the breadth-first order from the initial state, which visits the successors of a state by their symbols and
+ * then by their labels, so the numbers do not depend on the order the states have in the transition table.
+ * The edges from one state to another can be collapsed into one edge labelled with all of their characters,
+ * and the export can be restricted to the states reachable within a number of steps from the initial state,
+ * or to the first states found by a breadth-first search, which is a connected sample of a huge automaton.
+ */
+public class AutomatonExport {
+
+    public enum Format {
+        DOT,
+        GRAPHML
+    }
+
+    private final TransitionTable table;
+    private boolean collapse = false;
+    private int maxDepth = Integer.MAX_VALUE;
+    private int maxStates = Integer.MAX_VALUE;
+
+    public AutomatonExport(Automaton automaton) {
+        this.table = automaton.table();
+    }
+
+    // one edge per pair of states instead of one per range of characters
+    public AutomatonExport collapseParallelEdges(boolean collapse) {
+        this.collapse = collapse;
+        return this;
+    }
+
+    // only the states reachable from the initial state in at most maxDepth steps
+    public AutomatonExport maxDepth(int maxDepth) {
+        if(maxDepth < 0) {
+            throw new IllegalArgumentException("The depth must not be negative");
+        }
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    // only the first maxStates states in breadth-first order from the initial state
+    public AutomatonExport maxStates(int maxStates) {
+        if(maxStates < 1) {
+            throw new IllegalArgumentException("The export needs at least the initial state");
+        }
+        this.maxStates = maxStates;
+        return this;
+    }
+
+    public void write(Format format, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        write(format, writer);
+        writer.flush();
+    }
+
+    public void write(Format format, Writer out) throws IOException {
+        int[] selected = select();
+        // the number of every exported state, -1 for the others
+        int[] ids = new int[table.size()];
+        Arrays.fill(ids, -1);
+        for(int i = 0; i < selected.length; i++) {
+            ids[selected[i]] = i;
+        }
+        if(format == Format.DOT) {
+            writeDOT(selected, ids, out);
+        } else {
+            writeGraphML(selected, ids, out);
+        }
+    }
+
+    // breadth-first from the initial state within both limits, the states in the order they were found
+    private int[] select() {
+        int n = table.size();
+        int[] depth = new int[n];
+        Arrays.fill(depth, -1);
+        int[] queue = new int[Math.min(n, maxStates)];
+        int size = 0;
+        depth[table.initial] = 0;
+        queue[size++] = table.initial;
+        ArrayList<long[]> found = new ArrayList<>();
+        for(int head = 0; head < size && size < queue.length; head++) {
+            int s = queue[head];
+            if(depth[s] == maxDepth) {
+                continue;
+            }
+            // the new successors as (symbol, target), epsilon before all classes
+            found.clear();
+            for(int e = table.offsets[s]; e < table.offsets[s + 1]; e++) {
+                int to = table.targets[e];
+                if(depth[to] == -1) {
+                    depth[to] = depth[s] + 1;
+                    found.add(new long[]{e < table.letterStart[s] ? -1 : table.symbols[e], to});
+                }
+            }
+            // the edges of one symbol are in no particular order, their targets are ordered by label, numbered
+            // states in numeric order
+            found.sort(Comparator.<long[]>comparingLong(edge -> edge[0])
+                    .thenComparingInt(edge -> table.states[(int) edge[1]].label().length())
+                    .thenComparing(edge -> table.states[(int) edge[1]].label()));
+            for(long[] edge : found) {
+                if(size < queue.length) {
+                    queue[size++] = (int) edge[1];
+                }
+            }
+        }
+        return Arrays.copyOf(queue, size);
+    }
+
+    private interface EdgeWriter {
+        void edge(int from, int to, String label) throws IOException;
+    }
+
+    // the edges between exported states by their numbers, a range of neighbouring classes with the same target
+    // becomes one label
+    private void edges(int[] selected, int[] ids, EdgeWriter out) throws IOException {
+        String epsilon = new Automaton.Symbol.Epsilon().toString();
+        // the letter edges of a state as (target << 32 | class), so sorting groups them by target
+        long[] edges = new long[16];
+        int[] epsilonTargets = new int[16];
+        StringBuilder label = new StringBuilder();
+        for(int from = 0; from < selected.length; from++) {
+            int s = selected[from];
+            int count = 0;
+            for(int e = table.offsets[s]; e < table.letterStart[s]; e++) {
+                if(ids[table.targets[e]] == -1) {
+                    continue;
+                }
+                if(count == epsilonTargets.length) {
+                    epsilonTargets = Arrays.copyOf(epsilonTargets, count * 2);
+                }
+                epsilonTargets[count++] = ids[table.targets[e]];
+            }
+            Arrays.sort(epsilonTargets, 0, count);
+            for(int j = 0; j < count; j++) {
+                out.edge(from, epsilonTargets[j], epsilon);
+            }
+            count = 0;
+            for(int e = table.letterStart[s]; e < table.offsets[s + 1]; e++) {
+                if(ids[table.targets[e]] == -1) {
+                    continue;
+                }
+                if(count == edges.length) {
+                    edges = Arrays.copyOf(edges, count * 2);
+                }
+                edges[count++] = ((long) ids[table.targets[e]] << 32) | table.symbols[e];
+            }
+            Arrays.sort(edges, 0, count);
+            for(int j = 0; j < count; ) {
+                int to = (int) (edges[j] >>> 32);
+                label.setLength(0);
+                for(; j < count && (int) (edges[j] >>> 32) == to; ) {
+                    int first = (int) edges[j];
+                    int last = first;
+                    for(j++; j < count && (int) (edges[j] >>> 32) == to && (int) edges[j] == last + 1; j++) {
+                        last++;
+                    }
+                    String range = table.classes.symbol(first, last).toString();
+                    if(!collapse) {
+                        out.edge(from, to, range);
+                    } else {
+                        label.append(label.length() == 0 ? "" : ", ").append(range);
+                    }
+                }
+                if(collapse) {
+                    out.edge(from, to, label.toString());
+                }
+            }
+        }
+    }
+
+    private void writeDOT(int[] selected, int[] ids, Writer out) throws IOException {
+        out.write("digraph finite_state_machine {\n  rankdir=LR;\n");
+        for(int i = 0; i < selected.length; i++) {
+            int s = selected[i];
+            String shape = table.isFinal[s] ? "doublecircle" : "circle";
+            out.write("  node [shape = " + shape + ", label=\"" + dotEscape(table.states[s].label()) + "\"] q" + i + ";\n");
+        }
+        out.write("  node [shape = point] startstatename;\n");
+        out.write("  startstatename -> q" + ids[table.initial] + ";\n");
+        edges(selected, ids, (from, to, label) ->
+                out.write("  q" + from + " -> q" + to + " [label=\"" + dotEscape(label) + "\"];\n"));
+        out.write("}\n");
+    }
+
+    private void writeGraphML(int[] selected, int[] ids, Writer out) throws IOException {
+        out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+        out.write("  <key id=\"label\" for=\"node\" attr.name=\"label\" attr.type=\"string\"/>\n");
+        out.write("  <key id=\"initial\" for=\"node\" attr.name=\"initial\" attr.type=\"boolean\"/>\n");
+        out.write("  <key id=\"final\" for=\"node\" attr.name=\"final\" attr.type=\"boolean\"/>\n");
+        out.write("  <key id=\"symbols\" for=\"edge\" attr.name=\"label\" attr.type=\"string\"/>\n");
+        out.write("  <graph id=\"automaton\" edgedefault=\"directed\">\n");
+        for(int i = 0; i < selected.length; i++) {
+            int s = selected[i];
+            out.write("    <node id=\"q" + i + "\"><data key=\"label\">" + xmlEscape(table.states[s].label()) + "</data>");
+            if(s == table.initial) {
+                out.write("<data key=\"initial\">true</data>");
+            }
+            if(table.isFinal[s]) {
+                out.write("<data key=\"final\">true</data>");
+            }
+            out.write("</node>\n");
+        }
+        edges(selected, ids, (from, to, label) -> out.write("    <edge source=\"q" + from + "\" target=\"q" + to
+                + "\"><data key=\"symbols\">" + xmlEscape(label) + "</data></edge>\n"));
+        out.write("  </graph>\n</graphml>\n");
+    }
+
+    private static String dotEscape(String text) {
+        return text.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String xmlEscape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+}
@@ -0,0 +1,195 @@
+package de.tum.in.afl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compiled automata on disk, so that a pattern is only parsed and constructed once.
+ * The file is the transition table of the automaton, big-endian:
+ * <pre>
+ * int    magic 0x89 "AFL", version
+ * int    kind (ordinal of {@link PatternCache.Kind}, -1 if unknown), edit distance
+ * int    flags (1 = has epsilons, 2 = deterministic)
+ * int    states n, edges m, initial state, character classes c
+ * long   final states as a bitmap, (n + 63) / 64 words
+ * char   first character of every class[c]
+ * int    offsets[n + 1], letterStart[n]
+ * char   symbols[m] (class ids)
+ * int    targets[m]
+ * </pre>
+ * Loading maps the file and copies the arrays out in bulk, nothing is allocated per transition.
+ */
+public class AutomatonFile {
+
+    // the leading byte is no ASCII character, so no regex file starts like this
+    public static final int MAGIC = 0x8941464c;
+    public static final int VERSION = 2;
+    private static final int HEADER_BYTES = 9 * 4;
+
+    private static final int HAS_EPSILONS = 1;
+    private static final int DETERMINISTIC = 2;
+
+    public final Automaton automaton;
+    // what the automaton was compiled as, null if unknown
+    public final PatternCache.Kind kind;
+    public final int editDistance;
+
+    private AutomatonFile(Automaton automaton, PatternCache.Kind kind, int editDistance) {
+        this.automaton = automaton;
+        this.kind = kind;
+        this.editDistance = editDistance;
+    }
+
+    public static void write(Path file, Automaton automaton, PatternCache.Kind kind, int editDistance) throws IOException {
+        TransitionTable table = automaton.table();
+        int n = table.size();
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(kind == null ? -1 : kind.ordinal());
+            out.writeInt(editDistance);
+            out.writeInt((automaton.isEpsilon() ? HAS_EPSILONS : 0) | (automaton.isDeterministic() ? DETERMINISTIC : 0));
+            out.writeInt(n);
+            out.writeInt(table.edgeCount());
+            out.writeInt(table.initial);
+            out.writeInt(table.classes.count());
+            long[] finals = new long[(n + 63) >>> 6];
+            for(int s = 0; s < n; s++) {
+                if(table.isFinal[s]) {
+                    finals[s >>> 6] |= 1L << (s & 63);
+                }
+            }
+            for(long word : finals) {
+                out.writeLong(word);
+            }
+            for(int k = 0; k < table.classes.count(); k++) {
+                out.writeChar(table.classes.first(k));
+            }
+            for(int offset : table.offsets) {
+                out.writeInt(offset);
+            }
+            for(int start : table.letterStart) {
+                out.writeInt(start);
+            }
+            for(char symbol : table.symbols) {
+                out.writeChar(symbol);
+            }
+            for(int target : table.targets) {
+                out.writeInt(target);
+            }
+        }
+    }
+
+    // whether the file starts with the magic of a compiled automaton
+    public static boolean isAutomatonFile(Path file) throws IOException {
+        try(DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch(EOFException e) {
+            return false;
+        }
+    }
+
+    public static AutomatonFile read(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < HEADER_BYTES) {
+                throw new IOException(file + " is too short for a compiled automaton");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if(buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a compiled automaton");
+            }
+            int version = buffer.getInt();
+            if(version != VERSION) {
+                throw new IOException(file + " has format version " + version + ", expected " + VERSION);
+            }
+            int kind = buffer.getInt();
+            int editDistance = buffer.getInt();
+            int flags = buffer.getInt();
+            int n = buffer.getInt();
+            int m = buffer.getInt();
+            int initial = buffer.getInt();
+            int c = buffer.getInt();
+            long expected = HEADER_BYTES + 8L * ((n + 63L) >>> 6) + 2L * c + 4L * (2L * n + 1) + 6L * m;
+            if(n < 1 || m < 0 || initial < 0 || initial >= n || c < 1 || c > Character.MAX_VALUE + 1
+                    || kind < 0 || kind >= PatternCache.Kind.values().length || size != expected) {
+                throw new IOException(file + " is corrupt");
+            }
+
+            boolean[] isFinal = new boolean[n];
+            for(int w = 0; w < (n + 63) >>> 6; w++) {
+                long word = buffer.getLong();
+                while(word != 0) {
+                    isFinal[(w << 6) + Long.numberOfTrailingZeros(word)] = true;
+                    word &= word - 1;
+                }
+            }
+            char[] starts = chars(buffer, c);
+            int[] offsets = ints(buffer, n + 1);
+            int[] letterStart = ints(buffer, n);
+            char[] symbols = chars(buffer, m);
+            int[] targets = ints(buffer, m);
+            check(file, n, m, offsets, letterStart, symbols, c, targets);
+
+            CharClasses classes;
+            try {
+                classes = new CharClasses(starts);
+            } catch(IllegalArgumentException e) {
+                throw new IOException(file + " is corrupt", e);
+            }
+            TransitionTable table = new TransitionTable(initial, isFinal, classes, offsets, letterStart, symbols, targets);
+            Automaton automaton = Automaton.fromTable(table, (flags & HAS_EPSILONS) != 0, (flags & DETERMINISTIC) != 0);
+            return new AutomatonFile(automaton, kind < 0 ? null : PatternCache.Kind.values()[kind], editDistance);
+        }
+    }
+
+    private static char[] chars(ByteBuffer buffer, int count) {
+        char[] values = new char[count];
+        buffer.asCharBuffer().get(values);
+        buffer.position(buffer.position() + 2 * count);
+        return values;
+    }
+
+    private static int[] ints(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    // the engines trust the table, so a damaged file must not get past here
+    private static void check(Path file, int n, int m, int[] offsets, int[] letterStart, char[] symbols, int classes,
+                              int[] targets) throws IOException {
+        if(offsets[0] != 0 || offsets[n] != m) {
+            throw new IOException(file + " is corrupt");
+        }
+        for(int s = 0; s < n; s++) {
+            if(offsets[s] > letterStart[s] || letterStart[s] > offsets[s + 1]) {
+                throw new IOException(file + " is corrupt");
+            }
+        }
+        // firstEdge searches the letter edges of a state by binary search
+        for(int s = 0; s < n; s++) {
+            for(int e = letterStart[s] + 1; e < offsets[s + 1]; e++) {
+                if(symbols[e - 1] > symbols[e]) {
+                    throw new IOException(file + " is corrupt");
+                }
+            }
+        }
+        for(int target : targets) {
+            if(target < 0 || target >= n) {
+                throw new IOException(file + " is corrupt");
+            }
+        }
+        for(char symbol : symbols) {
+            if(symbol >= classes) {
+                throw new IOException(file + " is corrupt");
+            }
+        }
+    }
+}
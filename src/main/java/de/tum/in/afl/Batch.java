@@ -0,0 +1,130 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+
+/**
+ * Many jobs in one JVM: every line "task regex-file text-file edit-distance" of the job file (or stdin) is run
+ * on a fixed pool of workers. The ASTs are parsed once per regex file and the automata are shared between the
+ * jobs through {@link Main#PATTERNS}, so only the first job of a regex pays for its construction.
+ * The results are printed in input order as "line, result, latency", a failing job prints its error instead.
+ */
+public class Batch {
+
+    private final ExecutorService workers;
+    // jobs submitted but not printed yet, bounded so a long job file is not read into memory at once
+    private final int maxPending;
+    private final ConcurrentHashMap<String, CommonTree> asts = new ConcurrentHashMap<>();
+
+    public Batch(int workers) {
+        this.workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "batch-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPending = 4 * workers;
+    }
+
+    private static final class Job {
+        final int line;
+        final Future<String> result;
+        // set by the worker, the latency does not include the time spent waiting for it
+        volatile long start;
+        volatile long end;
+
+        Job(int line, Future<String> result) {
+            this.line = line;
+            this.result = result;
+        }
+    }
+
+    // the parsed regex file, parsing twice when two jobs ask at once is cheaper than a lock
+    private CommonTree parse(String file) throws Exception {
+        CommonTree ast = asts.get(file);
+        if(ast == null) {
+            ast = Main.regexpToTree(file);
+            CommonTree previous = asts.putIfAbsent(file, ast);
+            if(previous != null) {
+                ast = previous;
+            }
+        }
+        return ast;
+    }
+
+    public void run(BufferedReader jobs, PrintStream out) throws IOException {
+        ArrayDeque<Job> pending = new ArrayDeque<>();
+        int number = 0;
+        String line;
+        while((line = jobs.readLine()) != null) {
+            number++;
+            String trimmed = line.trim();
+            if(trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            if(pending.size() >= maxPending) {
+                print(pending.poll(), out);
+            }
+            pending.add(submit(number, trimmed.split("\\s+")));
+        }
+        while(!pending.isEmpty()) {
+            print(pending.poll(), out);
+        }
+        out.flush();
+    }
+
+    private Job submit(int line, String[] fields) {
+        Job[] job = new Job[1];
+        FutureTask<String> task = new FutureTask<>(() -> {
+            job[0].start = System.nanoTime();
+            try {
+                if(fields.length != 4) {
+                    throw new IllegalArgumentException("Use the following format: [task] [regex-file] [text-file] [edit-distance]");
+                }
+                return Main.task(Integer.parseInt(fields[0]), fields[1], fields[2], Integer.parseInt(fields[3]), this::parse);
+            } finally {
+                job[0].end = System.nanoTime();
+            }
+        });
+        job[0] = new Job(line, task);
+        workers.execute(task);
+        return job[0];
+    }
+
+    private static void print(Job job, PrintStream out) {
+        String result;
+        try {
+            result = job.result.get();
+        } catch(ExecutionException e) {
+            result = "error: " + e.getCause();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result = "error: interrupted";
+        }
+        out.printf("%d\t%s\t%.3f ms%n", job.line, result, (job.end - job.start) / 1e6);
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    // --batch [job-file|-] [workers]
+    static void main(String[] args) throws Exception {
+        if(args.length > 3) {
+            System.err.println("Use the following format: --batch [job-file|-] [workers]");
+            System.exit(-1);
+        }
+        String file = args.length > 1 ? args[1] : "-";
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Batch batch = new Batch(threads);
+        InputStream in = file.equals("-") ? System.in : new FileInputStream(file);
+        try(BufferedReader jobs = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            batch.run(jobs, System.out);
+        } finally {
+            batch.shutdown();
+        }
+    }
+}
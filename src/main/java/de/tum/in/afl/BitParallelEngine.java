@@ -0,0 +1,215 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * Bit-parallel simulation of a small epsilon-free NFA.
+ * The NFA is first split into Glushkov positions (a state together with the character class used to
+ * enter it), so that a step becomes D' = follow(D) & letters[class of c], where follow(D) is looked up
+ * byte by byte in precomputed tables.
+ */
+public class BitParallelEngine implements Engine {
+
+    public static final int MAX_POSITIONS = 256;
+
+    private final int positions;
+    private final int words;
+    private final CharClasses classes;
+    private final long[] follow;      // [chunk][byte][word]
+    private final long[] letters;     // [class][word]
+    private final long[] finals;
+    private final long[] initial;
+    private final boolean initialIsFinal;
+
+    // reused between steps, so an engine must not be shared between threads
+    private long[] current;
+    private long[] next;
+
+    public static int positionCount(Automaton nfa) {
+        TransitionTable table = nfa.table();
+        HashSet<Long> positions = new HashSet<>();
+        for(int e = 0; e < table.edgeCount(); e++) {
+            positions.add(((long) table.targets[e] << 16) | table.symbols[e]);
+        }
+        return positions.size() + 1;
+    }
+
+    public static boolean fits(Automaton nfa) {
+        return positionCount(nfa) <= MAX_POSITIONS;
+    }
+
+    public BitParallelEngine(Automaton nfa) {
+        TransitionTable table = nfa.table();
+        int n = table.size();
+        for(int s = 0; s < n; s++) {
+            if(table.hasEpsilons(s)) {
+                throw new AssertionError("Asserting non-Epsilon NFA! Did you forget to call removeEpsilons() ?");
+            }
+        }
+
+        // position 0 is the initial state, every other position is a distinct (target, letter) pair
+        HashMap<Long, Integer> positionIds = new HashMap<>();
+        ArrayList<Integer> positionStates = new ArrayList<>();
+        ArrayList<Character> positionLetters = new ArrayList<>();
+        positionStates.add(table.initial);
+        positionLetters.add('\0');
+        char maxLetter = 0;
+        for(int e = 0; e < table.edgeCount(); e++) {
+            long key = ((long) table.targets[e] << 16) | table.symbols[e];
+            if(!positionIds.containsKey(key)) {
+                positionIds.put(key, positionStates.size());
+                positionStates.add(table.targets[e]);
+                positionLetters.add(table.symbols[e]);
+                maxLetter = (char) Math.max(maxLetter, table.symbols[e]);
+            }
+        }
+        positions = positionStates.size();
+        if(positions > MAX_POSITIONS) {
+            throw new IllegalArgumentException("Automaton has " + positions + " positions, at most " + MAX_POSITIONS + " are supported");
+        }
+
+        words = (positions + 63) >>> 6;
+        classes = table.classes;
+        letters = new long[(maxLetter + 1) * words];
+        finals = new long[words];
+        initial = new long[words];
+        initial[0] = 1L;
+        initialIsFinal = table.isFinal[table.initial];
+
+        long[] followOf = new long[positions * words];
+        for(int p = 0; p < positions; p++) {
+            int s = positionStates.get(p);
+            if(table.isFinal[s]) {
+                set(finals, 0, p);
+            }
+            if(p != 0) {
+                set(letters, positionLetters.get(p) * words, p);
+            }
+            for(int e = table.offsets[s]; e < table.offsets[s + 1]; e++) {
+                long key = ((long) table.targets[e] << 16) | table.symbols[e];
+                set(followOf, p * words, positionIds.get(key));
+            }
+        }
+
+        int chunks = words * 8;
+        follow = new long[chunks * 256 * words];
+        for(int chunk = 0; chunk < chunks; chunk++) {
+            int base = chunk * 256 * words;
+            for(int b = 1; b < 256; b++) {
+                int lowest = Integer.numberOfTrailingZeros(b);
+                int p = chunk * 8 + lowest;
+                int rest = base + (b & (b - 1)) * words;
+                for(int w = 0; w < words; w++) {
+                    long bits = follow[rest + w];
+                    if(p < positions) {
+                        bits |= followOf[p * words + w];
+                    }
+                    follow[base + b * words + w] = bits;
+                }
+            }
+        }
+
+        current = new long[words];
+        next = new long[words];
+    }
+
+    private static void set(long[] bits, int base, int index) {
+        bits[base + (index >>> 6)] |= 1L << (index & 63);
+    }
+
+    public int positions() {
+        return positions;
+    }
+
+    // the metrics count follow lookups as transitions examined, one lookup covers the edges of 8 positions
+    @Override
+    public int run(CharSequence word, boolean stopAtMatch) {
+        Stats.RunTimer run = Stats.run("bit-parallel");
+        if(initialIsFinal) {
+            return run.end(0, 0, 1, 0, 0);
+        }
+        if(words == 1) {
+            return runSingleWord(word, stopAtMatch, run);
+        }
+
+        System.arraycopy(initial, 0, current, 0, words);
+        int peak = 0;
+        long lookups = 0;
+        for(int i = 0; MappedText.hasCharAt(word, i); i++) {
+            char c = classes.of(word.charAt(i));
+            int letter = c * words;
+            if(letter >= letters.length) {
+                return run.end(-1, i+1, peak, lookups, 0);
+            }
+            Arrays.fill(next, 0L);
+            for(int w = 0; w < words; w++) {
+                long d = current[w];
+                int chunk = w * 8;
+                while(d != 0) {
+                    int shift = Long.numberOfTrailingZeros(d) & ~7;
+                    int b = (int) (d >>> shift) & 0xff;
+                    int base = ((chunk + (shift >>> 3)) * 256 + b) * words;
+                    for(int x = 0; x < words; x++) {
+                        next[x] |= follow[base + x];
+                    }
+                    d &= ~(0xffL << shift);
+                    lookups++;
+                }
+            }
+            boolean alive = false;
+            boolean match = false;
+            int active = 0;
+            for(int w = 0; w < words; w++) {
+                next[w] &= letters[letter + w];
+                alive |= next[w] != 0;
+                match |= (next[w] & finals[w]) != 0;
+                active += Long.bitCount(next[w]);
+            }
+            peak = Math.max(peak, active);
+            if(stopAtMatch && match) {
+                return run.end(i+1, i+1, peak, lookups, 0);
+            }
+            if(!alive) {
+                return run.end(-1, i+1, peak, lookups, 0);
+            }
+            long[] tmp = current;
+            current = next;
+            next = tmp;
+        }
+        for(int w = 0; w < words; w++) {
+            if((current[w] & finals[w]) != 0) {
+                return run.end(word.length(), word.length(), peak, lookups, 0);
+            }
+        }
+        return run.end(-1, word.length(), peak, lookups, 0);
+    }
+
+    private int runSingleWord(CharSequence word, boolean stopAtMatch, Stats.RunTimer run) {
+        long d = initial[0];
+        long f = finals[0];
+        int peak = 0;
+        long lookups = 0;
+        for(int i = 0; MappedText.hasCharAt(word, i); i++) {
+            char c = classes.of(word.charAt(i));
+            if(c >= letters.length) {
+                return run.end(-1, i+1, peak, lookups, 0);
+            }
+            long n = 0;
+            for(long rest = d; rest != 0; ) {
+                int shift = Long.numberOfTrailingZeros(rest) & ~7;
+                n |= follow[(shift >>> 3) * 256 + (int) ((rest >>> shift) & 0xff)];
+                rest &= ~(0xffL << shift);
+                lookups++;
+            }
+            d = n & letters[c];
+            peak = Math.max(peak, Long.bitCount(d));
+            if(stopAtMatch && (d & f) != 0) {
+                return run.end(i+1, i+1, peak, lookups, 0);
+            }
+            if(d == 0) {
+                return run.end(-1, i+1, peak, lookups, 0);
+            }
+        }
+        return run.end((d & f) != 0 ? word.length() : -1, word.length(), peak, lookups, 0);
+    }
+}
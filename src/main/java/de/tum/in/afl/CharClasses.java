@@ -0,0 +1,135 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * Partition of the characters into intervals that no transition of an automaton tells apart.
+ * Class k is [starts[k], starts[k + 1]), the last class ends with Character.MAX_VALUE.
+ * A transition table labels its edges with class ids, so a range of characters costs one edge per class
+ * it covers instead of one per character, and an engine translates every character of the input into
+ * its class once.
+ */
+final class CharClasses {
+
+    // the classes of characters below LOOKUP are looked up, the others are found by binary search
+    private static final int LOOKUP = 256;
+
+    private final char[] starts;
+    private final char[] lookup;
+    // the symbol of every class, created on first use
+    private final Automaton.Symbol.Range[] symbols;
+
+    CharClasses(char[] starts) {
+        if(starts.length == 0 || starts[0] != 0) {
+            throw new IllegalArgumentException("The first class has to start at character 0");
+        }
+        for(int k = 1; k < starts.length; k++) {
+            if(starts[k] <= starts[k - 1]) {
+                throw new IllegalArgumentException("The classes have to be in increasing order");
+            }
+        }
+        this.starts = starts;
+        this.symbols = new Automaton.Symbol.Range[starts.length];
+        lookup = new char[LOOKUP];
+        int k = 0;
+        for(int c = 0; c < LOOKUP; c++) {
+            while(k + 1 < starts.length && starts[k + 1] <= c) {
+                k++;
+            }
+            lookup[c] = (char) k;
+        }
+    }
+
+    // the coarsest partition that keeps the ranges of the transitions apart
+    static CharClasses of(Collection<Automaton.Transition> transitions) {
+        BitSet cuts = new BitSet(Character.MAX_VALUE + 1);
+        cuts.set(0);
+        for(var t : transitions) {
+            if(t.symbol instanceof Automaton.Symbol.Range) {
+                Automaton.Symbol.Range range = (Automaton.Symbol.Range) t.symbol;
+                cuts.set(range.first);
+                cuts.set(range.last + 1);
+            }
+        }
+        return fromCuts(cuts);
+    }
+
+    // the coarsest partition that keeps the ranges apart
+    static CharClasses ofRanges(Collection<Automaton.Symbol.Range> ranges) {
+        BitSet cuts = new BitSet(Character.MAX_VALUE + 1);
+        cuts.set(0);
+        for(var range : ranges) {
+            cuts.set(range.first);
+            cuts.set(range.last + 1);
+        }
+        return fromCuts(cuts);
+    }
+
+    // the coarsest partition that refines all of the given ones
+    static CharClasses common(Collection<CharClasses> partitions) {
+        BitSet cuts = new BitSet(Character.MAX_VALUE + 1);
+        for(CharClasses classes : partitions) {
+            for(char start : classes.starts) {
+                cuts.set(start);
+            }
+        }
+        cuts.set(0);
+        return fromCuts(cuts);
+    }
+
+    private static CharClasses fromCuts(BitSet cuts) {
+        // a cut behind the last character does not start a class
+        cuts.clear(Character.MAX_VALUE + 1);
+        char[] starts = new char[cuts.cardinality()];
+        int k = 0;
+        for(int c = cuts.nextSetBit(0); c >= 0; c = cuts.nextSetBit(c + 1)) {
+            starts[k++] = (char) c;
+        }
+        return new CharClasses(starts);
+    }
+
+    int count() {
+        return starts.length;
+    }
+
+    char first(int k) {
+        return starts[k];
+    }
+
+    char last(int k) {
+        return k + 1 < starts.length ? (char) (starts[k + 1] - 1) : Character.MAX_VALUE;
+    }
+
+    // the class of c
+    char of(char c) {
+        if(c < LOOKUP) {
+            return lookup[c];
+        }
+        int lo = lookup[LOOKUP - 1];
+        int hi = starts.length - 1;
+        while(lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if(starts[mid] <= c) lo = mid;
+            else hi = mid - 1;
+        }
+        return (char) lo;
+    }
+
+    Automaton.Symbol.Range symbol(int k) {
+        Automaton.Symbol.Range symbol = symbols[k];
+        if(symbol == null) {
+            symbol = Automaton.Symbol.Range.of(first(k), last(k));
+            symbols[k] = symbol;
+        }
+        return symbol;
+    }
+
+    // the range covering the classes first..last
+    Automaton.Symbol.Range symbol(int first, int last) {
+        return first == last ? symbol(first) : Automaton.Symbol.Range.of(first(first), last(last));
+    }
+
+    char[] starts() {
+        return starts.clone();
+    }
+}
@@ -0,0 +1,339 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+
+import java.util.*;
+
+/**
+ * Builds the DFA of a regex directly from its AST with Brzozowski derivatives, without any epsilon NFA.
+ * Every DFA state is a regex term, and its successor on a character class is the derivative of the term
+ * by that class. Terms are hash-consed and normalized up to similarity (unions are flattened, sorted and
+ * free of duplicates, concatenation is right-associative, and the empty word and the empty language are
+ * simplified away), which makes the set of derivatives finite. Derivatives are memoized per term and
+ * class, so each state is only derived once per class and states are created when they are first reached.
+ */
+class Derivatives {
+
+    private static final int EMPTY = 0;
+    private static final int EPSILON = 1;
+    private static final int RANGE = 2;
+    private static final int CONCAT = 3;
+    private static final int OR = 4;
+    private static final int STAR = 5;
+
+    private static final Term[] NONE = new Term[0];
+
+    private static final class Term {
+        final int kind;
+        // the characters of a RANGE
+        final char first;
+        final char last;
+        // the two parts of a CONCAT, the alternatives of an OR ordered by id, the body of a STAR
+        final Term[] children;
+        private final int hash;
+
+        int id;
+        boolean nullable;
+        // derivatives[k] is the derivative by class k, filled in on demand
+        Term[] derivatives;
+
+        Term(int kind, char first, char last, Term[] children) {
+            this.kind = kind;
+            this.first = first;
+            this.last = last;
+            this.children = children;
+            int h = (kind * 31 + first) * 31 + last;
+            for(Term child : children) {
+                h = h * 31 + child.id;
+            }
+            this.hash = h;
+        }
+
+        // children are interned, so they are compared by identity
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Term)) return false;
+            Term o = (Term) other;
+            if(kind != o.kind || first != o.first || last != o.last || children.length != o.children.length) {
+                return false;
+            }
+            for(int i = 0; i < children.length; i++) {
+                if(children[i] != o.children[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            switch(kind) {
+                case EMPTY:
+                    return "/";
+                case EPSILON:
+                    return "@";
+                case RANGE:
+                    return Automaton.Symbol.Range.of(first, last).toString();
+                case CONCAT:
+                    return children[0].toString() + children[1];
+                case OR:
+                    StringBuilder result = new StringBuilder("(");
+                    for(int i = 0; i < children.length; i++) {
+                        result.append(i == 0 ? "" : "|").append(children[i]);
+                    }
+                    return result.append(")").toString();
+                default:
+                    // unions bring their own parentheses
+                    return (children[0].kind == CONCAT ? "(" + children[0] + ")" : children[0].toString()) + "*";
+            }
+        }
+    }
+
+    private final HashMap<Term, Term> terms = new HashMap<>();
+    private final Term empty;
+    private final Term epsilon;
+    private CharClasses classes;
+
+    private Derivatives() {
+        empty = intern(new Term(EMPTY, '\0', '\0', NONE));
+        epsilon = intern(new Term(EPSILON, '\0', '\0', NONE));
+    }
+
+    /**
+     * The DFA of the regex, or of everything ending with a match of it if prefixed is set. Normalized terms
+     * other than the empty language always accept some word, so the DFA has no dead states.
+     * Gives up with a StateExplosionException after maxStates states or once it (roughly) needs maxBytes.
+     */
+    static Automaton dfa(CommonTree ast, boolean prefixed, int maxStates, long maxBytes) {
+        Derivatives derivatives = new Derivatives();
+        Term initial = derivatives.term(ast);
+        ArrayList<Automaton.Symbol.Range> ranges = new ArrayList<>();
+        derivatives.collectRanges(initial, ranges, new HashSet<>());
+        if(prefixed) {
+            Term any = derivatives.range(Character.MIN_VALUE, Character.MAX_VALUE);
+            initial = derivatives.concat(derivatives.star(any), initial);
+        }
+        derivatives.classes = CharClasses.ofRanges(ranges);
+        return derivatives.explore(initial, maxStates, maxBytes);
+    }
+
+    private Term term(CommonTree ast) {
+        switch(ast.getToken().getType()) {
+            case RegexpParser.ID:
+                char c = ast.getText().charAt(0);
+                return range(c, c);
+            case RegexpParser.EPSILON:
+                return epsilon;
+            case RegexpParser.EMPTYSET:
+                return empty;
+            case RegexpParser.STAR:
+                return star(term((CommonTree) ast.getChild(0)));
+            case RegexpParser.OR: {
+                ArrayList<Term> alternatives = new ArrayList<>();
+                for(int i = 0; i < ast.getChildCount(); i++) {
+                    alternatives.add(term((CommonTree) ast.getChild(i)));
+                }
+                return or(alternatives);
+            }
+            case RegexpParser.CONCATENATION: {
+                // folded from the right, so concat never has to reassociate
+                Term result = epsilon;
+                for(int i = ast.getChildCount() - 1; i >= 0; i--) {
+                    result = concat(term((CommonTree) ast.getChild(i)), result);
+                }
+                return result;
+            }
+            default:
+                throw new AssertionError("Unknown Token in Regex!");
+        }
+    }
+
+    private void collectRanges(Term term, ArrayList<Automaton.Symbol.Range> ranges, HashSet<Term> seen) {
+        if(!seen.add(term)) {
+            return;
+        }
+        if(term.kind == RANGE) {
+            ranges.add(Automaton.Symbol.Range.of(term.first, term.last));
+        }
+        for(Term child : term.children) {
+            collectRanges(child, ranges, seen);
+        }
+    }
+
+    private Term intern(Term term) {
+        Term existing = terms.get(term);
+        if(existing != null) {
+            return existing;
+        }
+        term.id = terms.size();
+        switch(term.kind) {
+            case EPSILON:
+            case STAR:
+                term.nullable = true;
+                break;
+            case CONCAT:
+                term.nullable = term.children[0].nullable && term.children[1].nullable;
+                break;
+            case OR:
+                for(Term child : term.children) {
+                    term.nullable |= child.nullable;
+                }
+                break;
+            default:
+                term.nullable = false;
+        }
+        terms.put(term, term);
+        return term;
+    }
+
+    private Term range(char first, char last) {
+        return intern(new Term(RANGE, first, last, NONE));
+    }
+
+    private Term concat(Term a, Term b) {
+        if(a == empty || b == empty) {
+            return empty;
+        }
+        if(a == epsilon) {
+            return b;
+        }
+        if(b == epsilon) {
+            return a;
+        }
+        if(a.kind == CONCAT) {
+            return concat(a.children[0], concat(a.children[1], b));
+        }
+        return intern(new Term(CONCAT, '\0', '\0', new Term[]{a, b}));
+    }
+
+    private Term star(Term a) {
+        if(a == empty || a == epsilon) {
+            return epsilon;
+        }
+        if(a.kind == STAR) {
+            return a;
+        }
+        return intern(new Term(STAR, '\0', '\0', new Term[]{a}));
+    }
+
+    private Term or(List<Term> alternatives) {
+        TreeMap<Integer, Term> flat = new TreeMap<>();
+        for(Term alternative : alternatives) {
+            if(alternative.kind == OR) {
+                for(Term child : alternative.children) {
+                    flat.put(child.id, child);
+                }
+            } else if(alternative != empty) {
+                flat.put(alternative.id, alternative);
+            }
+        }
+        if(flat.isEmpty()) {
+            return empty;
+        }
+        if(flat.size() == 1) {
+            return flat.firstEntry().getValue();
+        }
+        return intern(new Term(OR, '\0', '\0', flat.values().toArray(NONE)));
+    }
+
+    // the words w such that c w is in the language of the term, c being any character of class k
+    private Term derive(Term term, int k) {
+        if(term.derivatives == null) {
+            term.derivatives = new Term[classes.count()];
+        }
+        Term result = term.derivatives[k];
+        if(result != null) {
+            return result;
+        }
+        char c = classes.first(k);
+        switch(term.kind) {
+            case RANGE:
+                result = term.first <= c && c <= term.last ? epsilon : empty;
+                break;
+            case CONCAT: {
+                Term head = concat(derive(term.children[0], k), term.children[1]);
+                result = term.children[0].nullable ? or(List.of(head, derive(term.children[1], k))) : head;
+                break;
+            }
+            case OR: {
+                ArrayList<Term> alternatives = new ArrayList<>(term.children.length);
+                for(Term child : term.children) {
+                    alternatives.add(derive(child, k));
+                }
+                result = or(alternatives);
+                break;
+            }
+            case STAR:
+                result = concat(derive(term.children[0], k), term);
+                break;
+            default:
+                result = empty;
+        }
+        term.derivatives[k] = result;
+        return result;
+    }
+
+    private Automaton explore(Term initial, int maxStates, long maxBytes) {
+        Automaton dfa = new Automaton();
+        HashMap<Term, Automaton.State> states = new HashMap<>();
+        ArrayDeque<Term> workList = new ArrayDeque<>();
+        dfa.initialState = state(initial, states, workList, maxStates, maxBytes);
+
+        while(!workList.isEmpty()) {
+            Term term = workList.poll();
+            Automaton.State from = states.get(term);
+            dfa.states.add(from);
+            if(term.nullable) {
+                dfa.finalStates.add(from);
+            }
+            // neighbouring classes with the same derivative become one range
+            Automaton.State runTo = null;
+            int runFirst = 0;
+            int runLast = 0;
+            for(int k = 0; k < classes.count(); k++) {
+                Term derivative = derive(term, k);
+                Automaton.State to = derivative == empty ? null : state(derivative, states, workList, maxStates, maxBytes);
+                if(to == runTo && k == runLast + 1) {
+                    runLast = k;
+                    continue;
+                }
+                if(runTo != null) {
+                    dfa.transitions.add(new Automaton.Transition(from, classes.symbol(runFirst, runLast), runTo));
+                }
+                runTo = to;
+                runFirst = k;
+                runLast = k;
+            }
+            if(runTo != null) {
+                dfa.transitions.add(new Automaton.Transition(from, classes.symbol(runFirst, runLast), runTo));
+            }
+        }
+        // the labels only need the terms and their parts, not the derivatives linking all terms together
+        for(Term term : terms.keySet()) {
+            term.derivatives = null;
+        }
+        return dfa;
+    }
+
+    private Automaton.State state(Term term, HashMap<Term, Automaton.State> states, ArrayDeque<Term> workList, int maxStates,
+                                  long maxBytes) {
+        Automaton.State state = states.get(term);
+        if(state == null) {
+            state = new Automaton.State(term::toString);
+            states.put(term, state);
+            workList.add(term);
+            // term, its derivatives and the state, roughly
+            long bytes = terms.size() * (64L + 8L * classes.count()) + states.size() * 96L;
+            if(states.size() > maxStates || bytes > maxBytes) {
+                throw new StateExplosionException("Derivative construction exceeded its budget of " + maxStates
+                        + " states or " + maxBytes + " bytes", states.size(), bytes);
+            }
+        }
+        return state;
+    }
+}
@@ -0,0 +1,148 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Builds the epsilon-free edit automaton of a regex within a budget of states, transitions and estimated
+ * bytes, degrading instead of running out of memory. The minimal DFA gives the smallest edit automaton, so
+ * it is tried first. If the subset construction or the edit automaton on top of it is too big, the edit
+ * automaton is built on the Thompson NFA without determinizing it. If that is too big as well, no automaton
+ * is built and the pattern is left to {@link EditDistanceMatcher}, which simulates the edit automaton on the fly.
+ */
+public class EditConstruction {
+
+    public enum Strategy {
+        // edit automaton of the minimal DFA
+        DFA,
+        // edit automaton of the epsilon-free NFA, determinization was skipped
+        NFA,
+        // no edit automaton, see EditDistanceMatcher.search
+        SIMULATION
+    }
+
+    /**
+     * Limits for one construction, -Dafl.maxStates, -Dafl.maxTransitions and -Dafl.maxBytes override the defaults.
+     */
+    public static final class Budget {
+        // roughly the heap of a state and of a transition with its hash set entry
+        static final long STATE_BYTES = 64;
+        static final long TRANSITION_BYTES = 80;
+
+        public final int maxStates;
+        public final long maxTransitions;
+        public final long maxBytes;
+
+        public Budget(int maxStates, long maxTransitions, long maxBytes) {
+            if(maxStates < 1 || maxTransitions < 1 || maxBytes < 1) {
+                throw new IllegalArgumentException("The budget has to allow at least one state and transition");
+            }
+            this.maxStates = maxStates;
+            this.maxTransitions = maxTransitions;
+            this.maxBytes = maxBytes;
+        }
+
+        public static Budget fromProperties() {
+            return new Budget(Integer.getInteger("afl.maxStates", Automaton.DEFAULT_MAX_DFA_STATES),
+                    Long.getLong("afl.maxTransitions", 1L << 24),
+                    Long.getLong("afl.maxBytes", Runtime.getRuntime().maxMemory() / 4));
+        }
+
+        static long bytes(long states, long transitions) {
+            return states * STATE_BYTES + transitions * TRANSITION_BYTES;
+        }
+
+        // throws if an automaton of this size does not fit
+        void check(String what, long states, long transitions) {
+            long bytes = bytes(states, transitions);
+            if(states > maxStates || transitions > maxTransitions || bytes > maxBytes) {
+                throw new StateExplosionException(what + " needs " + states + " states, " + transitions
+                        + " transitions and about " + bytes + " bytes", (int) Math.min(states, Integer.MAX_VALUE), bytes);
+            }
+        }
+    }
+
+    public final Strategy strategy;
+    // the epsilon-free edit automaton without the universal prefix, null for SIMULATION
+    public final Automaton automaton;
+    // the epsilon-free pattern, which EditDistanceMatcher can run with the same edit distance
+    public final Automaton pattern;
+    public final int editDistance;
+    // why the cheaper strategies were given up, null for DFA
+    public final String reason;
+
+    private EditConstruction(Strategy strategy, Automaton automaton, Automaton pattern, int editDistance, String reason) {
+        this.strategy = strategy;
+        this.automaton = automaton;
+        this.pattern = pattern;
+        this.editDistance = editDistance;
+        this.reason = reason;
+    }
+
+    public static EditConstruction build(CommonTree ast, int editDistance, Budget budget) {
+        Stats.PhaseTimer phase = Stats.phase("fromRegex");
+        Automaton nfa = phase.end(Automaton.fromRegex(ast));
+        String reason;
+        try {
+            Automaton dfa;
+            if(Main.DERIVATIVES) {
+                phase = Stats.phase("fromRegexByDerivatives");
+                dfa = phase.end(Automaton.fromRegexByDerivatives(ast, budget.maxStates, budget.maxBytes));
+                // the derivatives do not count edges while they explore, the states bound them meanwhile
+                budget.check("The DFA", dfa.table().size(), dfa.table().edgeCount());
+            } else {
+                phase = Stats.phase("toDFA");
+                // Batch workers build their patterns at the same time, on the common pool they share the cores
+                // instead of each starting a pool of its own
+                dfa = phase.end(nfa.toDFA(budget.maxStates, budget.maxTransitions, budget.maxBytes,
+                        ForkJoinPool.commonPool()));
+            }
+            phase = Stats.phase("minimize");
+            dfa = phase.end(dfa.minimize());
+            return new EditConstruction(Strategy.DFA, edit(dfa, editDistance, budget), nfa, editDistance, null);
+        } catch(StateExplosionException e) {
+            reason = e.getMessage();
+        }
+        try {
+            // toEditAutomaton works in place and the pattern is kept for the matcher
+            Automaton edit = edit(Automaton.fromRegex(ast), editDistance, budget);
+            return new EditConstruction(Strategy.NFA, edit, nfa, editDistance, reason);
+        } catch(StateExplosionException e) {
+            reason += "; " + e.getMessage();
+        }
+        return new EditConstruction(Strategy.SIMULATION, null, nfa, editDistance, reason);
+    }
+
+    // turns the epsilon-free automaton into its edit automaton, checked against the budget before every step that grows it
+    private static Automaton edit(Automaton edit, int editDistance, Budget budget) {
+        long n = edit.table().size();
+        long t = edit.table().edgeCount();
+        // copies in every layer, a deletion and at most two replacement ranges per edge and layer, an insertion
+        // per state and layer, and the edges to the common final state
+        long states = (editDistance + 1) * n + 1;
+        long transitions = (editDistance + 1) * t + 3L * editDistance * t + editDistance * n + (editDistance + 1) * n;
+        budget.check("The edit automaton", states, transitions);
+
+        Stats.PhaseTimer phase = Stats.phase("toEditAutomaton");
+        edit.toEditAutomaton(editDistance);
+        // concat a final State that accepts epsilons to have only 1 final state
+        edit.concat(Automaton.fromEpsilon());
+        phase.end(edit);
+        // every state takes over the edges of the states it reaches by deletions, which are at most
+        // editDistance layers further down
+        budget.check("The epsilon-free edit automaton", states, transitions * (editDistance + 1));
+        phase = Stats.phase("removeEpsilons");
+        return phase.end(edit.removeEpsilons());
+    }
+
+    // an engine that matches anywhere in the input, like run() on the edit automaton with the universal prefix
+    public Engine searchEngine() {
+        return EditDistanceMatcher.search(pattern, editDistance);
+    }
+
+    @Override
+    public String toString() {
+        return strategy + (reason == null ? "" : " (" + reason + ")");
+    }
+}
@@ -0,0 +1,302 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * Matches the words within edit distance k of the language of an epsilon-free NFA without building
+ * the edit automaton. For every NFA state only the least number of edits needed to reach it is kept,
+ * which is all the layered edit automaton can distinguish since every layer accepts.
+ * Insertions and replacements use any character, like {@link Automaton#toEditAutomaton(int)}.
+ * In search mode the matcher behaves like the automaton built by {@link Main#buildEditAutomaton},
+ * i.e. with the universal prefix in front.
+ */
+public class EditDistanceMatcher implements Engine {
+
+    private static final int NONE = Integer.MAX_VALUE;
+
+    private final int editDistance;
+    private final boolean search;
+    private final int n;
+    private final CharClasses classes;
+    private final int[] offsets;
+    private final char[] symbols;
+    private final int[] targets;
+    private final int[] initial;
+    private final boolean[] isFinal;
+
+    // errors[q] is the least number of edits with which q is active, NONE if it isn't
+    private int[] errors;
+    private int[] nextErrors;
+    private final int[] active;
+    private final int[] nextActive;
+    private final int[][] buckets;
+    private final int[] bucketSize;
+
+    private EditDistanceMatcher(int editDistance, boolean search, int n, CharClasses classes, int[] offsets,
+                                char[] symbols, int[] targets, int[] initial, boolean[] isFinal) {
+        this.editDistance = editDistance;
+        this.search = search;
+        this.n = n;
+        this.classes = classes;
+        this.offsets = offsets;
+        this.symbols = symbols;
+        this.targets = targets;
+        this.initial = initial;
+        this.isFinal = isFinal;
+
+        errors = new int[n];
+        nextErrors = new int[n];
+        Arrays.fill(errors, NONE);
+        Arrays.fill(nextErrors, NONE);
+        active = new int[n];
+        nextActive = new int[n];
+        buckets = new int[editDistance + 1][n];
+        bucketSize = new int[editDistance + 1];
+    }
+
+    // matches anywhere in the input, like run() on the output of Main.buildEditAutomaton
+    public static EditDistanceMatcher search(Automaton pattern, int editDistance) {
+        TransitionTable table = epsilonFree(pattern);
+        return new EditDistanceMatcher(editDistance, true, table.size(), table.classes, table.offsets, table.symbols,
+                table.targets, new int[]{table.initial}, table.isFinal);
+    }
+
+    // matches the reversed language, anchored at the start of the input
+    public static EditDistanceMatcher backwards(Automaton pattern, int editDistance) {
+        TransitionTable table = epsilonFree(pattern);
+        int n = table.size();
+        int[] offsets = new int[n + 1];
+        for(int e = 0; e < table.edgeCount(); e++) {
+            offsets[table.targets[e] + 1]++;
+        }
+        for(int s = 0; s < n; s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        int[] fill = Arrays.copyOf(offsets, n);
+        char[] symbols = new char[table.edgeCount()];
+        int[] targets = new int[table.edgeCount()];
+        for(int s = 0; s < n; s++) {
+            for(int e = table.offsets[s]; e < table.offsets[s + 1]; e++) {
+                int r = fill[table.targets[e]]++;
+                symbols[r] = table.symbols[e];
+                targets[r] = s;
+            }
+        }
+        int finals = 0;
+        for(int s = 0; s < n; s++) {
+            if(table.isFinal[s]) finals++;
+        }
+        int[] initial = new int[finals];
+        finals = 0;
+        for(int s = 0; s < n; s++) {
+            if(table.isFinal[s]) initial[finals++] = s;
+        }
+        boolean[] isFinal = new boolean[n];
+        isFinal[table.initial] = true;
+        return new EditDistanceMatcher(editDistance, false, n, table.classes, offsets, symbols, targets, initial, isFinal);
+    }
+
+    private static TransitionTable epsilonFree(Automaton pattern) {
+        TransitionTable table = pattern.table();
+        for(int s = 0; s < table.size(); s++) {
+            if(table.hasEpsilons(s)) {
+                throw new AssertionError("Asserting non-Epsilon NFA! Did you forget to call removeEpsilons() ?");
+            }
+        }
+        return table;
+    }
+
+    public boolean acceptsEmptyWord() {
+        int size = start();
+        boolean accepting = accepting(size);
+        clear(size);
+        return accepting;
+    }
+
+    @Override
+    public int run(CharSequence word, boolean stopAtMatch) {
+        Stats.RunTimer run = Stats.run("edit-distance");
+        int size = start();
+        if(accepting(size)) {
+            clear(size);
+            return run.end(0, 0, size, 0, 0);
+        }
+        int peak = size;
+        long examined = 0;
+
+        for(int i = 0; MappedText.hasCharAt(word, i); i++) {
+            char c = classes.of(word.charAt(i));
+            int nextSize = 0;
+            for(int k = 0; k < size; k++) {
+                int q = active[k];
+                int cost = errors[q];
+                // insertion
+                nextSize = relax(q, cost + 1, nextSize);
+                examined += offsets[q + 1] - offsets[q];
+                for(int e = offsets[q]; e < offsets[q + 1]; e++) {
+                    // match or replacement
+                    nextSize = relax(targets[e], symbols[e] == c ? cost : cost + 1, nextSize);
+                }
+            }
+            for(int k = 0; k < size; k++) {
+                errors[active[k]] = NONE;
+            }
+            int[] tmp = errors;
+            errors = nextErrors;
+            nextErrors = tmp;
+            System.arraycopy(nextActive, 0, active, 0, nextSize);
+            size = nextSize;
+            // the universal prefix is always alive, a new match can start behind every character
+            if(search) {
+                for(int q : initial) {
+                    size = activate(q, 0, size);
+                }
+            }
+            size = closeUnderDeletions(size);
+            peak = Math.max(peak, size);
+
+            if(stopAtMatch && accepting(size)) {
+                clear(size);
+                return run.end(i+1, i+1, peak, examined, 0);
+            }
+            if(size == 0 && !search) {
+                return run.end(-1, i+1, peak, examined, 0);
+            }
+        }
+        boolean accepting = accepting(size);
+        clear(size);
+        return run.end(accepting ? word.length() : -1, word.length(), peak, examined, 0);
+    }
+
+    /**
+     * Finds the shortest match in a single pass: the search is restarted behind the end of every match and
+     * of all matches found this way the first shortest one is returned, or null if there is none.
+     * Instead of only the least number of edits, every state keeps the latest start it is active from
+     * for every number of edits 0..k, so the start of a match is known as soon as its end is.
+     */
+    public Match shortestMatch(CharSequence word) {
+        if(!search) {
+            throw new AssertionError("Only a search matcher can look for matches!");
+        }
+        if(acceptsEmptyWord()) {
+            throw new AssertionError("The edit automaton accepts the empty word, there is no shortest match!");
+        }
+        Stats.RunTimer run = Stats.run("shortest-match");
+        PikeVM vm = new PikeVM(editDistance, n, classes, offsets, symbols, targets, initial, isFinal, true);
+        vm.start(0);
+        vm.close();
+        int shortestStart = PikeVM.NO_START;
+        int shortestEnd = PikeVM.NO_START;
+        int peak = vm.size();
+        int restarts = 0;
+        int read = 0;
+
+        for(int i = 0; i < word.length(); i++) {
+            read = i + 1;
+            vm.step(word.charAt(i));
+            vm.start(i + 1);
+            vm.close();
+            peak = Math.max(peak, vm.size());
+
+            int matchStart = vm.matchStart();
+            if(matchStart != PikeVM.NO_START) {
+                if(shortestStart == PikeVM.NO_START || i + 1 - matchStart < shortestEnd - shortestStart) {
+                    shortestStart = matchStart;
+                    shortestEnd = i + 1;
+                }
+                // search again behind the match with a fresh universal prefix
+                vm.clear();
+                vm.start(i + 1);
+                vm.close();
+                restarts++;
+            }
+        }
+        Match match = shortestStart == PikeVM.NO_START ? null : new Match(shortestStart, shortestEnd);
+        return run.end(match, read, peak, vm.examined(), restarts);
+    }
+
+    /**
+     * A session that runs the search of {@link #shortestMatch} on an input that arrives in chunks.
+     */
+    public MatchSession session(MatchSession.Listener listener) {
+        if(!search) {
+            throw new AssertionError("Only a search matcher can look for matches!");
+        }
+        if(acceptsEmptyWord()) {
+            throw new AssertionError("The edit automaton accepts the empty word, there is no shortest match!");
+        }
+        PikeVM vm = new PikeVM(editDistance, n, classes, offsets, symbols, targets, initial, isFinal, true);
+        return new MatchSession(vm, n, editDistance, listener);
+    }
+
+    private int start() {
+        int size = 0;
+        for(int q : initial) {
+            size = activate(q, 0, size);
+        }
+        return closeUnderDeletions(size);
+    }
+
+    private int relax(int q, int cost, int nextSize) {
+        if(cost > editDistance || cost >= nextErrors[q]) {
+            return nextSize;
+        }
+        if(nextErrors[q] == NONE) {
+            nextActive[nextSize++] = q;
+        }
+        nextErrors[q] = cost;
+        return nextSize;
+    }
+
+    private int activate(int q, int cost, int size) {
+        if(cost >= errors[q]) {
+            return size;
+        }
+        if(errors[q] == NONE) {
+            active[size++] = q;
+        }
+        errors[q] = cost;
+        return size;
+    }
+
+    // deleting a letter of the pattern follows an edge without reading input, at the cost of one edit
+    private int closeUnderDeletions(int size) {
+        for(int k = 0; k < size; k++) {
+            int q = active[k];
+            int cost = errors[q];
+            buckets[cost][bucketSize[cost]++] = q;
+        }
+        for(int cost = 0; cost < editDistance; cost++) {
+            for(int b = 0; b < bucketSize[cost]; b++) {
+                int q = buckets[cost][b];
+                if(errors[q] != cost) {
+                    continue;
+                }
+                for(int e = offsets[q]; e < offsets[q + 1]; e++) {
+                    int to = targets[e];
+                    if(cost + 1 < errors[to]) {
+                        size = activate(to, cost + 1, size);
+                        buckets[cost + 1][bucketSize[cost + 1]++] = to;
+                    }
+                }
+            }
+        }
+        Arrays.fill(bucketSize, 0);
+        return size;
+    }
+
+    private boolean accepting(int size) {
+        for(int k = 0; k < size; k++) {
+            if(isFinal[active[k]]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void clear(int size) {
+        for(int k = 0; k < size; k++) {
+            errors[active[k]] = NONE;
+        }
+    }
+}
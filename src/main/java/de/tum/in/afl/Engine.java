@@ -0,0 +1,14 @@
+package de.tum.in.afl;
+
+/**
+ * Something that can run an epsilon-free automaton over a word.
+ * run returns the same values as {@link Automaton#run(CharSequence, boolean)}:
+ * the length of the matched prefix, or -1 if there is none.
+ */
+public interface Engine {
+    int run(CharSequence word, boolean stopAtMatch);
+
+    default int run(CharSequence word) {
+        return run(word, false);
+    }
+}
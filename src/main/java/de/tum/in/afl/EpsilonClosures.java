@@ -0,0 +1,117 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * The epsilon closures of all states of an automaton, computed once per strongly connected component of the
+ * epsilon edges: all states of a component share the closure, which is the component itself plus the closures
+ * of the components it has edges to. Tarjan's algorithm finishes the components in reverse topological order,
+ * so those closures are always known when a component is completed.
+ */
+class EpsilonClosures {
+
+    private final int[] component;
+    // closure of every component as sorted state ids
+    private final ArrayList<int[]> closures = new ArrayList<>();
+
+    EpsilonClosures(TransitionTable table) {
+        int n = table.size();
+        component = new int[n];
+        Arrays.fill(component, -1);
+
+        int[] index = new int[n];
+        int[] low = new int[n];
+        Arrays.fill(index, -1);
+        int[] stack = new int[n];
+        int stackSize = 0;
+        boolean[] onStack = new boolean[n];
+        // the depth-first search, with the next epsilon edge to follow for every state on it
+        int[] path = new int[n];
+        int[] nextEdge = new int[n];
+        int counter = 0;
+
+        // scratch space for collecting a closure
+        int[] seen = new int[n];
+        int[] seenComponent = new int[n];
+        Arrays.fill(seen, -1);
+        Arrays.fill(seenComponent, -1);
+        int[] buffer = new int[n];
+
+        for(int root = 0; root < n; root++) {
+            if(index[root] >= 0) {
+                continue;
+            }
+            int depth = 0;
+            index[root] = low[root] = counter++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            path[depth] = root;
+            nextEdge[depth++] = table.offsets[root];
+
+            while(depth > 0) {
+                int s = path[depth - 1];
+                if(nextEdge[depth - 1] < table.letterStart[s]) {
+                    int t = table.targets[nextEdge[depth - 1]++];
+                    if(index[t] < 0) {
+                        index[t] = low[t] = counter++;
+                        stack[stackSize++] = t;
+                        onStack[t] = true;
+                        path[depth] = t;
+                        nextEdge[depth++] = table.offsets[t];
+                    } else if(onStack[t]) {
+                        low[s] = Math.min(low[s], index[t]);
+                    }
+                    continue;
+                }
+                depth--;
+                if(depth > 0) {
+                    int parent = path[depth - 1];
+                    low[parent] = Math.min(low[parent], low[s]);
+                }
+                if(low[s] != index[s]) {
+                    continue;
+                }
+
+                // s is the root of a component, its members are on top of the stack
+                int c = closures.size();
+                int from = stackSize;
+                do {
+                    from--;
+                    component[stack[from]] = c;
+                    onStack[stack[from]] = false;
+                } while(stack[from] != s);
+
+                int size = 0;
+                for(int i = from; i < stackSize; i++) {
+                    seen[stack[i]] = c;
+                    buffer[size++] = stack[i];
+                }
+                for(int i = from; i < stackSize; i++) {
+                    int member = stack[i];
+                    for(int e = table.offsets[member]; e < table.letterStart[member]; e++) {
+                        int d = component[table.targets[e]];
+                        if(d == c || seenComponent[d] == c) {
+                            continue;
+                        }
+                        seenComponent[d] = c;
+                        for(int x : closures.get(d)) {
+                            if(seen[x] != c) {
+                                seen[x] = c;
+                                buffer[size++] = x;
+                            }
+                        }
+                    }
+                }
+                int[] closure = Arrays.copyOf(buffer, size);
+                Arrays.sort(closure);
+                closures.add(closure);
+                stackSize = from;
+            }
+        }
+    }
+
+    // the states reachable from s by epsilon edges, including s, sorted by id
+    int[] of(int s) {
+        return closures.get(component[s]);
+    }
+}
@@ -0,0 +1,282 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * Hopcroft's partition refinement for (partial) DFAs in O(|alphabet| n log n).
+ * Missing transitions are treated as going to an implicit dead state, states equivalent to it are dropped.
+ */
+class Hopcroft {
+
+    // partition of the states 0..n, elements of block b are elements[start[b] .. end[b])
+    private final int[] elements;
+    private final int[] location;
+    private final int[] blockOf;
+    private final int[] start;
+    private final int[] end;
+    private final int[] marked;
+    private int blocks = 0;
+
+    private Hopcroft(int n) {
+        elements = new int[n];
+        location = new int[n];
+        blockOf = new int[n];
+        start = new int[n];
+        end = new int[n];
+        marked = new int[n];
+        for(int i = 0; i < n; i++) {
+            elements[i] = i;
+            location[i] = i;
+        }
+    }
+
+    static Automaton minimize(Automaton dfa) {
+        TransitionTable table = dfa.table();
+        int n = table.size();
+        int dead = n;
+        int total = n + 1;
+
+        char[] alphabet = alphabet(table);
+        int letters = alphabet.length;
+
+        // inverse transition function per letter, as CSR over the targets
+        int[][] inverseOffsets = new int[letters][];
+        int[][] inverseSources = new int[letters][];
+        for(int a = 0; a < letters; a++) {
+            int[] successor = new int[total];
+            Arrays.fill(successor, dead);
+            for(int s = 0; s < n; s++) {
+                int e = table.firstEdge(s, alphabet[a]);
+                if(e < table.offsets[s + 1] && table.symbols[e] == alphabet[a]) {
+                    successor[s] = table.targets[e];
+                }
+            }
+            int[] offsets = new int[total + 1];
+            for(int s = 0; s < total; s++) {
+                offsets[successor[s] + 1]++;
+            }
+            for(int s = 0; s < total; s++) {
+                offsets[s + 1] += offsets[s];
+            }
+            int[] fill = Arrays.copyOf(offsets, total);
+            int[] sources = new int[total];
+            for(int s = 0; s < total; s++) {
+                sources[fill[successor[s]]++] = s;
+            }
+            inverseOffsets[a] = offsets;
+            inverseSources[a] = sources;
+        }
+
+        Hopcroft partition = new Hopcroft(total);
+        partition.initialize(table);
+
+        // worklist of splitters (block, letter)
+        ArrayDeque<int[]> worklist = new ArrayDeque<>();
+        HashSet<Long> inWorklist = new HashSet<>();
+        if(partition.blocks == 2) {
+            int smaller = partition.size(0) <= partition.size(1) ? 0 : 1;
+            for(int a = 0; a < letters; a++) {
+                partition.enqueue(worklist, inWorklist, smaller, a, letters);
+            }
+        }
+
+        int[] touched = new int[total];
+        int[] preimage = new int[total];
+        while(!worklist.isEmpty()) {
+            int[] splitter = worklist.poll();
+            int block = splitter[0];
+            int a = splitter[1];
+            inWorklist.remove(key(block, a, letters));
+
+            int count = 0;
+            for(int i = partition.start[block]; i < partition.end[block]; i++) {
+                int q = partition.elements[i];
+                for(int k = inverseOffsets[a][q]; k < inverseOffsets[a][q + 1]; k++) {
+                    preimage[count++] = inverseSources[a][k];
+                }
+            }
+
+            int touchedCount = 0;
+            for(int i = 0; i < count; i++) {
+                int b = partition.mark(preimage[i]);
+                if(b >= 0) {
+                    touched[touchedCount++] = b;
+                }
+            }
+            for(int i = 0; i < touchedCount; i++) {
+                int b = touched[i];
+                int split = partition.split(b);
+                if(split < 0) {
+                    continue;
+                }
+                for(int letter = 0; letter < letters; letter++) {
+                    if(inWorklist.contains(key(b, letter, letters))) {
+                        partition.enqueue(worklist, inWorklist, split, letter, letters);
+                    } else {
+                        int smaller = partition.size(b) <= partition.size(split) ? b : split;
+                        partition.enqueue(worklist, inWorklist, smaller, letter, letters);
+                    }
+                }
+            }
+        }
+
+        return partition.quotient(dfa, table, dead);
+    }
+
+    private static char[] alphabet(TransitionTable table) {
+        TreeSet<Character> letters = new TreeSet<>();
+        for(int e = 0; e < table.edgeCount(); e++) {
+            letters.add(table.symbols[e]);
+        }
+        char[] alphabet = new char[letters.size()];
+        int i = 0;
+        for(char c : letters) {
+            alphabet[i++] = c;
+        }
+        return alphabet;
+    }
+
+    private static long key(int block, int letter, int letters) {
+        return (long) block * letters + letter;
+    }
+
+    private void enqueue(ArrayDeque<int[]> worklist, HashSet<Long> inWorklist, int block, int letter, int letters) {
+        if(inWorklist.add(key(block, letter, letters))) {
+            worklist.add(new int[]{block, letter});
+        }
+    }
+
+    private int size(int block) {
+        return end[block] - start[block];
+    }
+
+    // final states form the first block, the others (including the dead state) the second
+    private void initialize(TransitionTable table) {
+        int n = table.size();
+        int i = 0;
+        for(int s = 0; s < n; s++) {
+            if(table.isFinal[s]) {
+                place(s, i++);
+            }
+        }
+        int finals = i;
+        for(int s = 0; s <= n; s++) {
+            if(s == n || !table.isFinal[s]) {
+                place(s, i++);
+            }
+        }
+        if(finals > 0) {
+            addBlock(0, finals);
+        }
+        if(finals < elements.length) {
+            addBlock(finals, elements.length);
+        }
+    }
+
+    private void place(int s, int position) {
+        elements[position] = s;
+        location[s] = position;
+    }
+
+    private int addBlock(int from, int to) {
+        int b = blocks++;
+        start[b] = from;
+        end[b] = to;
+        marked[b] = 0;
+        for(int i = from; i < to; i++) {
+            blockOf[elements[i]] = b;
+        }
+        return b;
+    }
+
+    // moves s to the marked prefix of its block, returns the block if it was touched for the first time
+    private int mark(int s) {
+        int b = blockOf[s];
+        int position = location[s];
+        int boundary = start[b] + marked[b];
+        if(position < boundary) {
+            return -1;
+        }
+        int other = elements[boundary];
+        place(other, position);
+        place(s, boundary);
+        marked[b]++;
+        return marked[b] == 1 ? b : -1;
+    }
+
+    // splits the marked prefix off block b, returns the new block or -1 if b stays whole
+    private int split(int b) {
+        int m = marked[b];
+        marked[b] = 0;
+        if(m == size(b)) {
+            return -1;
+        }
+        int from = start[b];
+        start[b] = from + m;
+        return addBlock(from, from + m);
+    }
+
+    // all states, the reachable ones in breadth-first order from the initial state, which in a DFA does not depend
+    // on how the table numbered them, so neither do the representatives
+    private static int[] breadthFirst(TransitionTable table) {
+        int n = table.size();
+        int[] order = new int[n];
+        boolean[] seen = new boolean[n];
+        int size = 0;
+        order[size++] = table.initial;
+        seen[table.initial] = true;
+        for(int head = 0; head < size; head++) {
+            int s = order[head];
+            for(int e = table.offsets[s]; e < table.offsets[s + 1]; e++) {
+                if(!seen[table.targets[e]]) {
+                    seen[table.targets[e]] = true;
+                    order[size++] = table.targets[e];
+                }
+            }
+        }
+        for(int s = 0; s < n; s++) {
+            if(!seen[s]) {
+                order[size++] = s;
+            }
+        }
+        return order;
+    }
+
+    private Automaton quotient(Automaton dfa, TransitionTable table, int dead) {
+        int deadBlock = blockOf[dead];
+        Automaton.State[] representatives = new Automaton.State[blocks];
+        Automaton minimal = new Automaton();
+        for(int s : breadthFirst(table)) {
+            int b = blockOf[s];
+            if(b == deadBlock || representatives[b] != null) {
+                continue;
+            }
+            representatives[b] = table.states[s];
+            minimal.states.add(table.states[s]);
+            if(table.isFinal[s]) {
+                minimal.finalStates.add(table.states[s]);
+            }
+        }
+        for(int s = 0; s < table.size(); s++) {
+            if(representatives[blockOf[s]] != table.states[s]) {
+                continue;
+            }
+            for(int e = table.offsets[s]; e < table.offsets[s + 1]; e++) {
+                int target = blockOf[table.targets[e]];
+                if(target != deadBlock) {
+                    minimal.transitions.add(new Automaton.Transition(table.states[s], table.symbol(s, e), representatives[target]));
+                }
+            }
+        }
+
+        int initialBlock = blockOf[table.initial];
+        if(initialBlock == deadBlock) {
+            // the language is empty, keep the initial state on its own
+            minimal.states.add(dfa.initialState);
+            minimal.initialState = dfa.initialState;
+        } else {
+            minimal.initialState = representatives[initialBlock];
+        }
+        return minimal;
+    }
+}
@@ -0,0 +1,178 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * On-the-fly subset construction: only the subsets reached by the input are determinized and their
+ * transitions are memoized. When the cache grows beyond its budget it is flushed, and if that happens
+ * too often during one run the rest of the word is simulated without caching.
+ * Instances keep their cache between runs and must not be shared between threads.
+ */
+public class LazyDFA implements Engine {
+
+    public static final long DEFAULT_CACHE_BYTES = 16L << 20;
+    private static final int MAX_FLUSHES_PER_RUN = 8;
+
+    private static final int UNKNOWN = -1;
+
+    private final TransitionTable table;
+    // every character class of the table gets a cache column
+    private final int alphabet;
+    private final long maxCacheBytes;
+
+    private final HashMap<Subset, Integer> ids = new HashMap<>();
+    private final ArrayList<int[]> subsets = new ArrayList<>();
+    private final ArrayList<int[]> next = new ArrayList<>();
+    private final BitSet accepting = new BitSet();
+    private long cacheBytes = 0;
+    private int flushes = 0;
+
+    private final int[] seen;
+    private final int[] buffer;
+    private int stamp = 0;
+    // transitions followed by the subset steps of the current run, cached steps follow none
+    private long examined = 0;
+    // the largest cached subset, a bound of the states active at once that costs nothing per character
+    private int largest = 0;
+
+    public LazyDFA(Automaton nfa) {
+        this(nfa, DEFAULT_CACHE_BYTES);
+    }
+
+    public LazyDFA(Automaton nfa, long maxCacheBytes) {
+        this.table = nfa.table();
+        this.alphabet = table.classes.count();
+        this.maxCacheBytes = maxCacheBytes;
+        for(int s = 0; s < table.size(); s++) {
+            if(table.hasEpsilons(s)) {
+                throw new AssertionError("Asserting non-Epsilon NFA! Did you forget to call removeEpsilons() ?");
+            }
+        }
+        seen = new int[table.size()];
+        buffer = new int[table.size()];
+    }
+
+    public int cachedStates() {
+        return subsets.size();
+    }
+
+    public int flushes() {
+        return flushes;
+    }
+
+    @Override
+    public int run(CharSequence word, boolean stopAtMatch) {
+        Stats.RunTimer run = Stats.run("lazy-dfa");
+        if(table.isFinal[table.initial]) {
+            return run.end(0, 0, 1, 0, 0);
+        }
+        int flushesAtStart = flushes;
+        examined = 0;
+        int current = intern(new int[]{table.initial});
+
+        for(int i = 0; MappedText.hasCharAt(word, i); i++) {
+            char c = table.classes.of(word.charAt(i));
+            int target = next.get(current)[c];
+            if(target == UNKNOWN) {
+                int[] states = step(subsets.get(current), c);
+                if(cacheBytes > maxCacheBytes) {
+                    flush();
+                    if(flushes - flushesAtStart > MAX_FLUSHES_PER_RUN) {
+                        return simulate(states, word, i + 1, stopAtMatch, run);
+                    }
+                    target = intern(states);
+                } else {
+                    target = intern(states);
+                    next.get(current)[c] = target;
+                }
+            }
+            current = target;
+            if(subsets.get(current).length == 0) {
+                return run.end(-1, i+1, largest, examined, 0);
+            }
+            if(stopAtMatch && accepting.get(current)) {
+                return run.end(i+1, i+1, largest, examined, 0);
+            }
+        }
+        return run.end(accepting.get(current) ? word.length() : -1, word.length(), largest, examined, 0);
+    }
+
+    // plain subset simulation for the rest of the word, used once the cache keeps overflowing
+    private int simulate(int[] states, CharSequence word, int from, boolean stopAtMatch, Stats.RunTimer run) {
+        int peak = Math.max(largest, states.length);
+        if(states.length == 0) {
+            return run.end(-1, from, peak, examined, 0);
+        }
+        if(stopAtMatch && isAccepting(states)) {
+            return run.end(from, from, peak, examined, 0);
+        }
+        for(int i = from; MappedText.hasCharAt(word, i); i++) {
+            states = step(states, table.classes.of(word.charAt(i)));
+            peak = Math.max(peak, states.length);
+            if(states.length == 0) {
+                return run.end(-1, i+1, peak, examined, 0);
+            }
+            if(stopAtMatch && isAccepting(states)) {
+                return run.end(i+1, i+1, peak, examined, 0);
+            }
+        }
+        return run.end(isAccepting(states) ? word.length() : -1, word.length(), peak, examined, 0);
+    }
+
+    private int[] step(int[] states, char c) {
+        stamp++;
+        int size = 0;
+        for(int s : states) {
+            int end = table.offsets[s + 1];
+            for(int e = table.firstEdge(s, c); e < end && table.symbols[e] == c; e++) {
+                examined++;
+                int to = table.targets[e];
+                if(seen[to] != stamp) {
+                    seen[to] = stamp;
+                    buffer[size++] = to;
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(buffer, size);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private boolean isAccepting(int[] states) {
+        for(int s : states) {
+            if(table.isFinal[s]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int intern(int[] states) {
+        Subset key = new Subset(states);
+        Integer id = ids.get(key);
+        if(id != null) {
+            return id;
+        }
+        id = subsets.size();
+        ids.put(key, id);
+        subsets.add(states);
+        largest = Math.max(largest, states.length);
+        int[] row = new int[alphabet];
+        Arrays.fill(row, UNKNOWN);
+        next.add(row);
+        accepting.set(id, isAccepting(states));
+        // row, subset array, key and map entry
+        cacheBytes += 16 + 4L * alphabet + 16 + 4L * states.length + 32 + 48;
+        return id;
+    }
+
+    private void flush() {
+        ids.clear();
+        subsets.clear();
+        next.clear();
+        accepting.clear();
+        largest = 0;
+        cacheBytes = 0;
+        flushes++;
+    }
+}
@@ -0,0 +1,303 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+
+import java.util.*;
+
+/**
+ * Literals of which every match contains at least one, extracted from the regex AST, so that texts without
+ * them are rejected by a plain substring search and the automaton only runs around their occurrences.
+ * With k edits a match need not contain a required literal, but by the pigeonhole principle it contains one of
+ * k+1 disjoint pieces of it, since every edit destroys at most one piece.
+ * Prefilters are immutable and can be shared between threads.
+ */
+public class LiteralPrefilter {
+
+    // bounds on the literal sets tracked during the analysis
+    private static final int MAX_EXACT = 16;
+    private static final int MAX_LITERALS = 8;
+    private static final int UNBOUNDED = -1;
+
+    // what the analysis knows about the language of a subexpression
+    private static final class Info {
+        // all words of the language, null if there are too many
+        final Set<String> exact;
+        // every word contains one of these, {""} if nothing is known and {} if the language is empty
+        final Set<String> required;
+        // length of the longest word or UNBOUNDED
+        final int maxLength;
+
+        Info(Set<String> exact, Set<String> required, int maxLength) {
+            this.exact = exact;
+            this.required = required;
+            this.maxLength = maxLength;
+        }
+    }
+
+    private final String[] literals;
+    private final int minLength;
+    // longest possible match, UNBOUNDED if the pattern has a star over a nonempty language
+    private final int maxLength;
+
+    private LiteralPrefilter(Set<String> literals, int maxLength) {
+        this.literals = literals.toArray(new String[0]);
+        int min = Integer.MAX_VALUE;
+        for(String literal : literals) {
+            min = Math.min(min, literal.length());
+        }
+        this.minLength = min;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * The prefilter for matches of the regex with up to editDistance edits,
+     * or null if the regex has no literal that is long enough to be worth searching for.
+     */
+    public static LiteralPrefilter of(CommonTree ast, int editDistance) {
+        Info info = analyze(ast);
+        if(info.required.isEmpty()) {
+            // the language is empty, nothing ever matches
+            return new LiteralPrefilter(info.required, 0);
+        }
+        Set<String> literals = new TreeSet<>();
+        for(String literal : info.required) {
+            if(literal.length() <= editDistance) {
+                return null;
+            }
+            // pigeonhole: k+1 pieces of almost equal length
+            int pieces = editDistance + 1;
+            for(int i = 0; i < pieces; i++) {
+                literals.add(literal.substring(literal.length() * i / pieces, literal.length() * (i + 1) / pieces));
+            }
+        }
+        int maxLength = info.maxLength == UNBOUNDED ? UNBOUNDED : info.maxLength + editDistance;
+        return new LiteralPrefilter(literals, maxLength);
+    }
+
+    private static Info analyze(CommonTree ast) {
+        switch(ast.getToken().getType()) {
+            case RegexpParser.ID:
+                Set<String> letter = Set.of(ast.getText());
+                return new Info(letter, letter, 1);
+            case RegexpParser.EPSILON:
+                return new Info(Set.of(""), Set.of(""), 0);
+            case RegexpParser.EMPTYSET:
+                return new Info(Set.of(), Set.of(), 0);
+            case RegexpParser.STAR: {
+                Info child = analyze((CommonTree) ast.getChild(0));
+                // a star over the empty word or the empty language only accepts the empty word
+                if(child.maxLength == 0) {
+                    return new Info(Set.of(""), Set.of(""), 0);
+                }
+                return new Info(null, Set.of(""), UNBOUNDED);
+            }
+            case RegexpParser.OR: {
+                Set<String> exact = new HashSet<>();
+                Set<String> required = new HashSet<>();
+                int maxLength = 0;
+                for(int i = 0; i < ast.getChildCount(); i++) {
+                    Info child = analyze((CommonTree) ast.getChild(i));
+                    exact = union(exact, child.exact, MAX_EXACT);
+                    required = union(required, child.required, MAX_LITERALS);
+                    maxLength = child.maxLength == UNBOUNDED || maxLength == UNBOUNDED ? UNBOUNDED : Math.max(maxLength, child.maxLength);
+                }
+                return new Info(exact, required == null ? Set.of("") : simplify(required), maxLength);
+            }
+            case RegexpParser.CONCATENATION: {
+                // runs of children with known words are multiplied out, the longest literals of all runs
+                // and of the other children are the candidates for the required literals
+                Set<String> run = Set.of("");
+                Set<String> best = Set.of("");
+                boolean exact = true;
+                boolean empty = false;
+                int maxLength = 0;
+                for(int i = 0; i < ast.getChildCount(); i++) {
+                    Info child = analyze((CommonTree) ast.getChild(i));
+                    empty |= child.required.isEmpty();
+                    maxLength = child.maxLength == UNBOUNDED || maxLength == UNBOUNDED ? UNBOUNDED : maxLength + child.maxLength;
+                    Set<String> product = child.exact == null ? null : product(run, child.exact);
+                    if(product != null) {
+                        run = product;
+                        continue;
+                    }
+                    exact = false;
+                    best = better(best, run);
+                    best = better(best, child.required);
+                    run = child.exact == null ? Set.of("") : child.exact;
+                }
+                if(empty) {
+                    return new Info(Set.of(), Set.of(), 0);
+                }
+                best = better(best, run);
+                return new Info(exact ? run : null, best, maxLength);
+            }
+            default:
+                throw new IllegalArgumentException("Unknown token " + ast.getText());
+        }
+    }
+
+    private static Set<String> union(Set<String> a, Set<String> b, int limit) {
+        if(a == null || b == null || a.size() + b.size() > limit) {
+            return null;
+        }
+        Set<String> result = new HashSet<>(a);
+        result.addAll(b);
+        return result;
+    }
+
+    private static Set<String> product(Set<String> a, Set<String> b) {
+        if((long) a.size() * b.size() > MAX_EXACT) {
+            return null;
+        }
+        Set<String> result = new HashSet<>();
+        for(String x : a) {
+            for(String y : b) {
+                result.add(x + y);
+            }
+        }
+        return result;
+    }
+
+    // a set that contains the empty word requires nothing
+    private static Set<String> simplify(Set<String> literals) {
+        return literals.contains("") ? Set.of("") : literals;
+    }
+
+    // prefers the set whose shortest literal is longest, then the one with fewer literals
+    private static Set<String> better(Set<String> a, Set<String> b) {
+        if(a.isEmpty() || b.isEmpty()) {
+            return a.isEmpty() ? a : b;
+        }
+        if(b.size() > MAX_LITERALS) {
+            return a;
+        }
+        int shortestA = shortest(a);
+        int shortestB = shortest(b);
+        if(shortestB > shortestA || (shortestB == shortestA && b.size() < a.size())) {
+            return b;
+        }
+        return a;
+    }
+
+    private static int shortest(Set<String> literals) {
+        int min = Integer.MAX_VALUE;
+        for(String literal : literals) {
+            min = Math.min(min, literal.length());
+        }
+        return min;
+    }
+
+    // whether matches have a longest length, only then the engine runs on windows instead of the whole text
+    public boolean isBounded() {
+        return maxLength != UNBOUNDED;
+    }
+
+    public List<String> literals() {
+        return List.of(literals);
+    }
+
+    // whether one of the literals occurs in the text at all
+    public boolean mayMatch(CharSequence text) {
+        return new Occurrences(text, searchLimit(text)).next(0) >= 0;
+    }
+
+    /**
+     * Like engine.run(text, true) for an engine with the universal prefix in front, but the engine only runs on
+     * windows around the occurrences of the literals if the length of the matches is bounded.
+     */
+    public int firstMatchEnd(Engine engine, CharSequence text) {
+        Occurrences occurrences = new Occurrences(text, searchLimit(text));
+        int at = occurrences.next(0);
+        if(at < 0) {
+            return -1;
+        }
+        if(maxLength == UNBOUNDED) {
+            return engine.run(text, true);
+        }
+
+        // a match around an occurrence at o lies within [o + minLength - maxLength, o + maxLength),
+        // overlapping windows are merged so every character is stepped at most once
+        int windowStart = Math.max(0, at + minLength - maxLength);
+        int windowEnd = MappedText.lengthUpTo(text, at + maxLength);
+        while(true) {
+            at = occurrences.next(at + 1);
+            if(at >= 0 && at + minLength - maxLength <= windowEnd) {
+                windowEnd = MappedText.lengthUpTo(text, Math.max(windowEnd, at + maxLength));
+                continue;
+            }
+            int end = engine.run(text.subSequence(windowStart, windowEnd), true);
+            if(end >= 0) {
+                return windowStart + end;
+            }
+            if(at < 0) {
+                return -1;
+            }
+            windowStart = Math.max(0, at + minLength - maxLength);
+            windowEnd = MappedText.lengthUpTo(text, at + maxLength);
+        }
+    }
+
+    // a mapped text finds its end while it is searched, so it is not read further than the first match needs
+    private static int searchLimit(CharSequence text) {
+        return text instanceof MappedText ? Integer.MAX_VALUE : text.length();
+    }
+
+    // the occurrences of all literals in text[0, limit) in increasing order
+    private final class Occurrences {
+        private final CharSequence text;
+        private final int limit;
+        // next occurrence of every literal at or after searched[i], -1 if there is none
+        private final int[] next;
+        private final int[] searched;
+
+        Occurrences(CharSequence text, int limit) {
+            this.text = text;
+            this.limit = limit;
+            next = new int[literals.length];
+            searched = new int[literals.length];
+            Arrays.fill(searched, -1);
+        }
+
+        // the first position at or after from where one of the literals starts, -1 if there is none
+        int next(int from) {
+            int first = -1;
+            for(int i = 0; i < literals.length; i++) {
+                if(searched[i] < 0 || (next[i] >= 0 && next[i] < from)) {
+                    next[i] = indexOf(text, literals[i], Math.max(from, searched[i]), limit);
+                    searched[i] = from;
+                }
+                if(next[i] >= 0 && (first < 0 || next[i] < first)) {
+                    first = next[i];
+                }
+            }
+            return first;
+        }
+    }
+
+    // first occurrence of literal in text[from, limit), -1 if there is none
+    static int indexOf(CharSequence text, String literal, int from, int limit) {
+        int last = limit - literal.length();
+        if(text instanceof String) {
+            int at = ((String) text).indexOf(literal, from);
+            return at >= 0 && at <= last ? at : -1;
+        }
+        if(text instanceof MappedText) {
+            return ((MappedText) text).indexOf(literal, from, limit);
+        }
+        char first = literal.charAt(0);
+        for(int i = from; i <= last; i++) {
+            // skip to the next candidate first, the inner comparison is rarely entered
+            if(text.charAt(i) != first) {
+                continue;
+            }
+            int j = 1;
+            while(j < literal.length() && text.charAt(i + j) == literal.charAt(j)) {
+                j++;
+            }
+            if(j == literal.length()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -5,15 +5,35 @@ import org.antlr.runtime.CharStream;
 import org.antlr.runtime.CommonTokenStream;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Collectors;
 
 public class Main {
 
+  // -Dafl.verbose=true prints construction details to stderr
+  static final boolean VERBOSE = Boolean.getBoolean("afl.verbose");
+  // -Dafl.derivatives=true builds the DFAs of the matcher patterns and edit automata with derivatives instead of
+  // Thompson's construction, which is still used when a DFA grows too large, see PatternCache.byDerivatives
+  static final boolean DERIVATIVES = Boolean.getBoolean("afl.derivatives");
+  // limits for building edit automata, see EditConstruction.Budget for the properties that set them
+  static final EditConstruction.Budget BUDGET = EditConstruction.Budget.fromProperties();
+
+  // compiled automata are shared between calls, e.g. when the exercises are run from a long-lived service
+  static final PatternCache PATTERNS = new PatternCache();
+
   public static org.antlr.runtime.tree.CommonTree regexpToTree(String file) throws Exception {
     //	ANTLRInputStream input = new ANTLRInputStream(file)
-    CharStream input = new ANTLRFileStream(file);
+    return regexpToTree(new ANTLRFileStream(file));
+  }
+
+  // e.g. new ANTLRStringStream(regex) for a regex that is not in a file
+  public static org.antlr.runtime.tree.CommonTree regexpToTree(CharStream input) throws Exception {
     // Generate a lexer for reading the formula `input'
     RegexpLexer lexer = new RegexpLexer(input);
     // Generate from the lexer a token stream to be fed to the parser
@@ -71,110 +91,353 @@ public class Main {
     return Files.lines(Paths.get(filename)).collect(Collectors.joining(""));
   }
 
-  public static void exercise1(String[] args) throws Exception {
-    Automaton nfa = Automaton.fromRegexWithPrefix(regexpToTree(args[1]));
-    int matchEnd = nfa.run(readFile(args[2]), true);
-    System.out.print("Task 1: ");
-    if(matchEnd == -1) System.out.println("not found");
-    else System.out.println(matchEnd);
+  // same characters as readFile for ASCII text, but mapped instead of copied onto the heap
+  public static MappedText mapFile(String filename) throws IOException {
+    return MappedText.open(Path.of(filename));
   }
 
-  public static Automaton buildEditAutomaton(org.antlr.runtime.tree.CommonTree ast, int editDistance) {
-    Automaton nfa = Automaton.fromRegex(ast);
-//    System.out.println("Building DFA");
-    nfa = nfa.toDFA();
-//    System.out.println("Building Edit Automaton");
-    nfa.toEditAutomaton(editDistance);
-//    System.out.println("Removing Epsilons");
-    // concat a final State that accepts epsilons to have only 1 final state
-    nfa.concat(Automaton.fromEpsilon());
-
-    nfa = nfa.removeEpsilons();
-//    System.out.println("Adding Prefix");
-    Automaton univ = Automaton.universal();
-    univ.concat(nfa);
-//    System.out.println("Removing Epsilons");
-    univ = univ.removeEpsilons();
-//    System.out.println("Running");
-    return univ;
+  // long texts are scanned in parallel chunks if the automaton is small enough for that
+  static Engine engineFor(Automaton nfa, CharSequence text) {
+    if(ParallelScanner.worthIt(text) && ParallelScanner.fits(nfa)) {
+      return new ParallelScanner(nfa);
+    }
+    return nfa.engine();
   }
 
-  public static void exercise2(String[] args) throws Exception {
-    var ast = regexpToTree(args[1]);
-    int editDistance = Integer.parseInt(args[3]);
-    Automaton nfa = buildEditAutomaton(ast, editDistance);
-    int matchEnd = nfa.run(readFile(args[2]), true);
-    System.out.print("Task 2: ");
-    if(matchEnd == -1) System.out.println("not found");
-    else System.out.println(matchEnd);
-  }
-
-  public static void printShortestMatchStartAndEnd(Automaton forward, Automaton backward, String input) {
-    int minimalLength = Integer.MAX_VALUE;
-    int start = -1;
-    int end = -1;
-    int offset = 0;
-    while(!input.isEmpty()) {
-      int matchEnd = forward.run(input, true);
-      if(matchEnd == -1) {
-        break;
+  // reads a regex file into its AST, batch mode shares the trees between its jobs
+  interface Parser {
+    org.antlr.runtime.tree.CommonTree parse(String file) throws Exception;
+  }
+
+  // the regex file may also be an automaton compiled with --compile, which is loaded instead of rebuilt
+  static Automaton loadPattern(String file, PatternCache.Kind kind, Parser parser) throws Exception {
+    Path path = Path.of(file);
+    if(!AutomatonFile.isAutomatonFile(path)) {
+      return PATTERNS.get(parser.parse(file), kind, 0);
+    }
+    AutomatonFile compiled = AutomatonFile.read(path);
+    if(compiled.kind != kind) {
+      throw new IllegalArgumentException(file + " holds a " + compiled.kind + " automaton, this task needs " + kind);
+    }
+    return compiled.automaton;
+  }
+
+  // --compile <prefixed|pattern|edit> <regex-file> <output-file> [edit-distance]
+  static void compile(String[] args) throws Exception {
+    if(args.length < 4 || args.length > 5) {
+      System.err.println("Use the following format: --compile [prefixed|pattern|edit] [regex-file] [output-file] [edit-distance]");
+      System.exit(-1);
+    }
+    PatternCache.Kind kind = PatternCache.Kind.valueOf(args[1].toUpperCase());
+    int editDistance = args.length == 5 ? Integer.parseInt(args[4]) : 0;
+    Automaton automaton = PATTERNS.get(regexpToTree(args[2]), kind, editDistance);
+    AutomatonFile.write(Path.of(args[3]), automaton, kind, kind == PatternCache.Kind.EDIT ? editDistance : 0);
+    if(VERBOSE) {
+      System.err.println("Compiled " + automaton.table().size() + " states, " + automaton.table().edgeCount() + " transitions");
+    }
+  }
+
+  // --export <dot|graphml> <prefixed|pattern|edit> <regex-file> <output-file|-> [edit-distance] [max-depth] [max-states]
+  static void export(String[] args) throws Exception {
+    if(args.length < 5 || args.length > 8) {
+      System.err.println("Use the following format: --export [dot|graphml] [prefixed|pattern|edit] [regex-file] [output-file|-]"
+          + " [edit-distance] [max-depth] [max-states]");
+      System.exit(-1);
+    }
+    AutomatonExport.Format format = AutomatonExport.Format.valueOf(args[1].toUpperCase());
+    PatternCache.Kind kind = PatternCache.Kind.valueOf(args[2].toUpperCase());
+    int editDistance = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+    Automaton automaton = AutomatonFile.isAutomatonFile(Path.of(args[3]))
+        ? loadPattern(args[3], kind, Main::regexpToTree)
+        : PATTERNS.get(regexpToTree(args[3]), kind, editDistance);
+    AutomatonExport export = new AutomatonExport(automaton).collapseParallelEdges(true);
+    if(args.length > 6) {
+      export.maxDepth(Integer.parseInt(args[6]));
+    }
+    if(args.length > 7) {
+      export.maxStates(Integer.parseInt(args[7]));
+    }
+    if(args[4].equals("-")) {
+      export.write(format, System.out);
+    } else {
+      try(OutputStream out = Files.newOutputStream(Path.of(args[4]))) {
+        export.write(format, out);
       }
-      if(matchEnd == 0) {
-        System.out.println("" + offset + " - " + offset);
+    }
+  }
+
+  // --patterns <text-file> <edit-distance> <regex-file>..., like task 1 and 2 for all patterns in one pass
+  static void matchPatterns(String[] args) throws Exception {
+    if(args.length < 4) {
+      System.err.println("Use the following format: --patterns [text-file] [edit-distance] [regex-file]...");
+      System.exit(-1);
+    }
+    int editDistance = Integer.parseInt(args[2]);
+    ArrayList<org.antlr.runtime.tree.CommonTree> asts = new ArrayList<>();
+    for(int i = 3; i < args.length; i++) {
+      asts.add(regexpToTree(args[i]));
+    }
+    long[] ends = new long[asts.size()];
+    try(MappedText text = mapFile(args[1])) {
+      if(isStreamed(text)) {
+        // a pattern set only scans CharSequences, too long texts are streamed once per pattern
+        for(int i = 0; i < ends.length; i++) {
+          ends[i] = streamedFirstMatchEnd(PATTERNS.get(asts.get(i), PatternCache.Kind.PATTERN, 0), editDistance, text);
+        }
+      } else {
+        matchPatterns(asts, editDistance, text, ends);
       }
-//      System.out.println("input = " + input);
-//      System.out.println("matchEnd = " + matchEnd);
-      String reversedInput = new StringBuilder(input.substring(0, matchEnd)).reverse().toString();
-//      System.out.println("reversedInput = " + reversedInput);
-      int matchLength = backward.run(reversedInput, true);
-      if(matchLength == -1) {
-        System.out.println("This shouldn't happen: If forward automaton matched, backwards automaton must too");
-        break;
+    }
+    for(int i = 0; i < ends.length; i++) {
+      System.out.print(args[i + 3] + ": ");
+      if(ends[i] == -1) System.out.println("not found");
+      else System.out.println(ends[i]);
+    }
+  }
+
+  // the first match ends of all patterns, in one pass of a PatternSet for those whose edit automaton fits the budget
+  private static void matchPatterns(List<org.antlr.runtime.tree.CommonTree> asts, int editDistance, CharSequence text,
+                                    long[] ends) {
+    ArrayList<Automaton> patterns = new ArrayList<>();
+    // the patterns whose edit automaton does not fit the budget are simulated one by one instead
+    ArrayList<Integer> inSet = new ArrayList<>();
+    Engine[] simulated = new Engine[asts.size()];
+    for(int i = 0; i < asts.size(); i++) {
+      var ast = asts.get(i);
+      if(editDistance == 0) {
+        patterns.add(PATTERNS.get(ast, PatternCache.Kind.PATTERN, 0));
+        inSet.add(i);
+        continue;
+      }
+      EditConstruction construction = editConstruction(ast, editDistance);
+      if(construction.automaton == null) {
+        simulated[i] = construction.searchEngine();
+      } else {
+        patterns.add(construction.automaton);
+        inSet.add(i);
       }
+    }
+    int[] setEnds = patterns.isEmpty() ? new int[0] : new PatternSet(patterns).firstMatchEnds(text);
+    for(int p = 0; p < setEnds.length; p++) {
+      ends[inSet.get(p)] = setEnds[p];
+    }
+    for(int i = 0; i < simulated.length; i++) {
+      if(simulated[i] != null) {
+        ends[i] = simulated[i].run(text, true);
+      }
+    }
+  }
 
-//      System.out.println("Match from " + (matchEnd - matchLength + offset) + " to " + (matchEnd + offset));
-      if(matchLength < minimalLength) {
-        minimalLength = matchLength;
-        start = matchEnd - matchLength + offset + 1;
-        end = matchEnd + offset;
+  // null for compiled automata, whose regex is not known anymore, and for regexes without usable literals
+  static LiteralPrefilter prefilterFor(String file, int editDistance, Parser parser) throws Exception {
+    if(AutomatonFile.isAutomatonFile(Path.of(file))) {
+      return null;
+    }
+    return LiteralPrefilter.of(parser.parse(file), editDistance);
+  }
+
+  // run(text, true) of the engine, only around the required literals if the regex has some
+  static int firstMatchEnd(Engine engine, LiteralPrefilter prefilter, CharSequence text) {
+    if(prefilter == null) {
+      return engine.run(text, true);
+    }
+    return prefilter.firstMatchEnd(engine, text);
+  }
+
+  public static void exercise1(String[] args) throws Exception {
+    System.out.println(task1(args[1], args[2], Main::regexpToTree));
+  }
+
+  static String task1(String regexFile, String textFile, Parser parser) throws Exception {
+    Automaton nfa = loadPattern(regexFile, PatternCache.Kind.PREFIXED, parser);
+    LiteralPrefilter prefilter = prefilterFor(regexFile, 0, parser);
+    long matchEnd;
+    try(MappedText text = mapFile(textFile)) {
+      if(isStreamed(text)) {
+        // the universal prefix in front of the prefixed automaton changes nothing
+        matchEnd = streamedFirstMatchEnd(nfa, 0, text);
+      } else {
+        // the windows are slices of the text, which the parallel scanner must not share between its threads
+        Engine engine = prefilter != null && prefilter.isBounded() ? nfa.engine() : engineFor(nfa, text);
+        matchEnd = firstMatchEnd(engine, prefilter, text);
       }
+    }
+    return "Task 1: " + (matchEnd == -1 ? "not found" : matchEnd);
+  }
 
-      input = input.substring(matchEnd);
-      offset += matchEnd;
-//      System.out.println("new input: " + input);
+  public static Automaton buildEditAutomaton(org.antlr.runtime.tree.CommonTree ast, int editDistance) {
+    Automaton nfa = editAutomaton(ast, editDistance);
+    Automaton univ = Automaton.universal();
+    univ.concat(nfa);
+    Stats.PhaseTimer phase = Stats.phase("prefix removeEpsilons");
+    return phase.end(univ.removeEpsilons());
+  }
+
+  // the epsilon-free edit automaton of the pattern, without the universal prefix, within BUDGET
+  static EditConstruction editConstruction(org.antlr.runtime.tree.CommonTree ast, int editDistance) {
+    EditConstruction construction = EditConstruction.build(ast, editDistance, BUDGET);
+    if(VERBOSE && construction.strategy != EditConstruction.Strategy.DFA) {
+      System.err.println("Edit automaton for edit distance " + editDistance + ": " + construction);
+    }
+    return construction;
+  }
+
+  // like editConstruction, for callers that cannot do without the automaton
+  static Automaton editAutomaton(org.antlr.runtime.tree.CommonTree ast, int editDistance) {
+    EditConstruction construction = editConstruction(ast, editDistance);
+    if(construction.automaton == null) {
+      throw new StateExplosionException("No edit automaton fits the budget: " + construction.reason, BUDGET.maxStates,
+          BUDGET.maxBytes);
     }
+    return construction.automaton;
+  }
+
+  public static void exercise2(String[] args) throws Exception {
+    System.out.println(task2(args[1], args[2], Integer.parseInt(args[3]), Main::regexpToTree));
+  }
 
-    if(start == -1) {
-      System.out.println("not found");
+  static String task2(String regexFile, String textFile, int editDistance, Parser parser) throws Exception {
+    Automaton pattern = loadPattern(regexFile, PatternCache.Kind.PATTERN, parser);
+    Engine matcher = EditDistanceMatcher.search(pattern, editDistance);
+    LiteralPrefilter prefilter = prefilterFor(regexFile, editDistance, parser);
+    long matchEnd;
+    try(MappedText text = mapFile(textFile)) {
+      matchEnd = isStreamed(text) ? streamedFirstMatchEnd(pattern, editDistance, text) : firstMatchEnd(matcher, prefilter, text);
     }
-    else {
-      System.out.println("" + start + " - " + end);
+    return "Task 2: " + (matchEnd == -1 ? "not found" : matchEnd);
+  }
+
+  public static void printShortestMatchStartAndEnd(Match match) {
+    System.out.println(shortestMatchStartAndEnd(match));
+  }
+
+  static String shortestMatchStartAndEnd(Match match) {
+    if(match == null) {
+      return "not found";
     }
+    return "" + (match.start + 1) + " - " + match.end;
   }
 
-  public static void exercise3(String[] args) throws Exception {
-    Automaton nfa = Automaton.fromRegexWithPrefix(regexpToTree(args[1]));
-    Automaton backwardsNfa = nfa.backwardsMatchAutomaton();
+  // texts that may not fit into a CharSequence are streamed through a MatchSession, which counts in long offsets
+  static boolean isStreamed(MappedText text) {
+    return text.byteSize() > Integer.MAX_VALUE;
+  }
 
-    String input = readFile(args[2]);
+  static long streamedFirstMatchEnd(Automaton pattern, int editDistance, MappedText text) {
+    EditDistanceMatcher matcher = EditDistanceMatcher.search(pattern, editDistance);
+    if(matcher.acceptsEmptyWord()) {
+      return 0;
+    }
+    // ends the session at the first match
+    MatchSession session = matcher.session((start, end) -> false);
+    text.feed(session);
+    return session.firstMatchEnd();
+  }
 
-    System.out.print("Task 3: ");
-    printShortestMatchStartAndEnd(nfa, backwardsNfa, input);
+  public static void exercise3(String[] args) throws Exception {
+    System.out.println(shortestMatchTask(3, args[1], args[2], 0, Main::regexpToTree));
   }
 
   public static void exercise4(String[] args) throws Exception {
-    var ast = regexpToTree(args[1]);
-    int editDistance = Integer.parseInt(args[3]);
-    Automaton nfa = buildEditAutomaton(ast, editDistance);
-    Automaton backwardsNfa = nfa.backwardsMatchAutomaton();
+    System.out.println(shortestMatchTask(4, args[1], args[2], Integer.parseInt(args[3]), Main::regexpToTree));
+  }
 
-    String input = readFile(args[2]);
+  // task 3 is task 4 with edit distance 0
+  static String shortestMatchTask(int task, String regexFile, String textFile, int editDistance, Parser parser) throws Exception {
+    Automaton pattern = loadPattern(regexFile, PatternCache.Kind.PATTERN, parser);
+    EditDistanceMatcher matcher = EditDistanceMatcher.search(pattern, editDistance);
+    // without edits a small pattern is searched with the bit-parallel engine and only the matches are read backwards
+    Engine forward = null;
+    if(editDistance == 0 && !AutomatonFile.isAutomatonFile(Path.of(regexFile)) && !matcher.acceptsEmptyWord()) {
+      Automaton prefixed = loadPattern(regexFile, PatternCache.Kind.PREFIXED, parser);
+      forward = BitParallelEngine.fits(prefixed) ? prefixed.engine() : null;
+    }
+    LiteralPrefilter prefilter = prefilterFor(regexFile, editDistance, parser);
+    Match match;
+    try(MappedText input = mapFile(textFile)) {
+      if(isStreamed(input)) {
+        MatchSession session = matcher.session((start, end) -> true);
+        input.feed(session);
+        long[] shortest = session.shortestMatch();
+        return "Task " + task + ": " + (shortest == null ? "not found" : (shortest[0] + 1) + " - " + shortest[1]);
+      }
+      // the text is only searched for the literals, the restarts behind every match keep the engine on all of it
+      if(prefilter != null && !prefilter.mayMatch(input)) {
+        match = null;
+      } else if(forward != null) {
+        match = shortestMatch(forward, EditDistanceMatcher.backwards(pattern, 0), input);
+      } else {
+        match = matcher.shortestMatch(input);
+      }
+    }
+    return "Task " + task + ": " + shortestMatchStartAndEnd(match);
+  }
 
-    System.out.print("Task 4: ");
-    printShortestMatchStartAndEnd(nfa, backwardsNfa, input);
+  // the first shortest match with the restarts of EditDistanceMatcher.shortestMatch: forward to the end of the
+  // next match, then backwards to its latest start, but not beyond the last restart, so every character is
+  // read at most twice
+  static Match shortestMatch(Engine forward, Engine backward, CharSequence text) {
+    Match shortest = null;
+    int length = text.length();
+    for(int offset = 0; offset < length; ) {
+      int end = forward.run(CharBuffer.wrap(text, offset, length), true);
+      if(end == -1) {
+        break;
+      }
+      end += offset;
+      int matchLength = backward.run(new ReversedText(text, offset, end), true);
+      if(shortest == null || matchLength < shortest.length()) {
+        shortest = new Match(end - matchLength, end);
+      }
+      offset = end;
+    }
+    return shortest;
+  }
+
+  // the line main prints for task 1-4
+  static String task(int task, String regexFile, String textFile, int editDistance, Parser parser) throws Exception {
+    switch (task) {
+      case 1:
+        return task1(regexFile, textFile, parser);
+      case 2:
+        return task2(regexFile, textFile, editDistance, parser);
+      case 3:
+        return shortestMatchTask(3, regexFile, textFile, 0, parser);
+      case 4:
+        return shortestMatchTask(4, regexFile, textFile, editDistance, parser);
+      default:
+        throw new IllegalArgumentException("There is no task " + task);
+    }
   }
 
   public static void main(String[] args) throws Exception {
+    Stats stats = VERBOSE ? Stats.record() : null;
+    try {
+      dispatch(args);
+    } finally {
+      if (stats != null) {
+        System.err.print(stats.stop());
+      }
+    }
+  }
+
+  private static void dispatch(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("--compile")) {
+      compile(args);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--patterns")) {
+      matchPatterns(args);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--export")) {
+      export(args);
+      return;
+    }
+    if (args.length > 0 && args[0].equals("--batch")) {
+      Batch.main(args);
+      return;
+    }
     if (args.length != 4) {
       System.err.println("Use the following format: [task] [regex-file] [text-file] [edit-distance]");
       System.exit(-1);
@@ -204,7 +467,7 @@ public class Main {
         // DEBUGGING
 
         Automaton nfa = Automaton.fromRegex(regexpToTree(args[1])).removeEpsilons();
-        nfa = nfa.toDFA();
+        nfa = nfa.toDFA().minimize();
         nfa.toEditAutomaton(1);
         nfa = nfa.removeEpsilons();
 //        System.out.println(nfa.toDOT());
@@ -0,0 +1,326 @@
+package de.tum.in.afl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A memory-mapped file read as Latin-1 text with all line terminators removed, i.e. the same characters
+ * {@link Main#readFile(String)} returns for ASCII files, but without copying them onto the heap.
+ * The file is mapped in segments and indexed lazily: checkpoints are only recorded once a character behind
+ * them is asked for, so a scan that stops early never reads the rest of the file, and only length() has to
+ * read all of it. As a CharSequence the text holds at most Integer.MAX_VALUE characters, larger files can
+ * still be fed to a {@link MatchSession}, which counts in long offsets.
+ * Sequential access is O(1) per character, random access scans from the nearest checkpoint.
+ * Instances keep a read cursor and must not be shared between threads, use a view per thread.
+ */
+public class MappedText implements CharSequence, Closeable {
+
+    public static final int DEFAULT_SEGMENT_BITS = 30;
+    private static final int CHECKPOINT_BITS = 16;
+    private static final int CHECKPOINT_MASK = (1 << CHECKPOINT_BITS) - 1;
+    private static final int BACKWARD_STEPS = 1 << 12;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final int segmentBits;
+    private final long segmentMask;
+    private final long size;
+    private final Index positions;
+
+    // a lower bound of the length, the characters below it are indexed
+    private int known = 0;
+    private int cursorIndex = -1;
+    private long cursorByte = -1;
+
+    // byte offset of every (1 << CHECKPOINT_BITS)-th character as far as the file has been scanned, shared by all views
+    private final class Index {
+        private long[] checkpoints = new long[16];
+        private long characters = 0;
+        private long scanned = 0;
+
+        // indexes the file until it has more than target characters or ends, and returns the characters indexed
+        synchronized long extendTo(long target) {
+            while(characters <= target && scanned < size) {
+                if(!isLineTerminator(byteAt(scanned))) {
+                    if((characters & CHECKPOINT_MASK) == 0) {
+                        int mark = (int) (characters >>> CHECKPOINT_BITS);
+                        if(mark == checkpoints.length) {
+                            checkpoints = Arrays.copyOf(checkpoints, checkpoints.length * 2);
+                        }
+                        checkpoints[mark] = scanned;
+                    }
+                    characters++;
+                }
+                scanned++;
+            }
+            return characters;
+        }
+
+        synchronized long checkpoint(int mark) {
+            return checkpoints[mark];
+        }
+    }
+
+    public static MappedText open(Path file) throws IOException {
+        return new MappedText(file, DEFAULT_SEGMENT_BITS);
+    }
+
+    public MappedText(Path file, int segmentBits) throws IOException {
+        if(segmentBits < 1 || segmentBits > DEFAULT_SEGMENT_BITS) {
+            throw new IllegalArgumentException("Segments must hold between 2^1 and 2^" + DEFAULT_SEGMENT_BITS + " bytes");
+        }
+        this.segmentBits = segmentBits;
+        this.segmentMask = (1L << segmentBits) - 1;
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        int count = (int) ((size + segmentMask) >>> segmentBits);
+        segments = new MappedByteBuffer[count];
+        for(int i = 0; i < count; i++) {
+            long start = (long) i << segmentBits;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, 1L << segmentBits));
+        }
+        positions = new Index();
+    }
+
+    private MappedText(MappedText other) {
+        channel = other.channel;
+        segments = other.segments;
+        segmentBits = other.segmentBits;
+        segmentMask = other.segmentMask;
+        size = other.size;
+        positions = other.positions;
+        known = other.known;
+    }
+
+    // a view on the same mapping with its own read cursor, e.g. for another thread
+    public MappedText view() {
+        return new MappedText(this);
+    }
+
+    // an upper bound of the number of characters that is known without reading the file
+    public long byteSize() {
+        return size;
+    }
+
+    // whether text has a character at index, a mapped text is only indexed up to there
+    static boolean hasCharAt(CharSequence text, int index) {
+        return text instanceof MappedText ? ((MappedText) text).hasCharAt(index) : index < text.length();
+    }
+
+    // Math.min(limit, text.length()), a mapped text is only indexed up to limit
+    static int lengthUpTo(CharSequence text, int limit) {
+        if(!(text instanceof MappedText)) {
+            return Math.min(limit, text.length());
+        }
+        MappedText mapped = (MappedText) text;
+        // if the character before limit is missing, the whole file is indexed and length() is cheap
+        return limit <= 0 || mapped.hasCharAt(limit - 1) ? limit : mapped.length();
+    }
+
+    public boolean hasCharAt(int index) {
+        if(index < known) {
+            return index >= 0;
+        }
+        known = (int) Math.min(Integer.MAX_VALUE, positions.extendTo(index | CHECKPOINT_MASK));
+        return index < known;
+    }
+
+    private static boolean isLineTerminator(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    private byte byteAt(long position) {
+        return segments[(int) (position >>> segmentBits)].get((int) (position & segmentMask));
+    }
+
+    // reads the whole file, see byteSize() for a bound that does not
+    @Override
+    public int length() {
+        long characters = positions.extendTo(Long.MAX_VALUE);
+        if(characters > Integer.MAX_VALUE) {
+            throw new IllegalStateException("The text has " + characters + " characters, at most " + Integer.MAX_VALUE
+                    + " fit into a CharSequence, feed it to a MatchSession instead");
+        }
+        known = (int) characters;
+        return known;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(!hasCharAt(index)) {
+            throw new IndexOutOfBoundsException("index " + index + ", the text is shorter");
+        }
+        if(index != cursorIndex) {
+            long position;
+            int at;
+            if(index > cursorIndex && index - cursorIndex < (1 << CHECKPOINT_BITS)) {
+                position = cursorByte;
+                at = cursorIndex;
+            } else if(index < cursorIndex && cursorIndex - index < BACKWARD_STEPS) {
+                // short jumps back, e.g. to the start of a candidate window, walk instead of rescanning
+                position = cursorByte;
+                while(cursorIndex > index) {
+                    position--;
+                    while(isLineTerminator(byteAt(position))) {
+                        position--;
+                    }
+                    cursorIndex--;
+                }
+                cursorByte = position;
+                return (char) (byteAt(cursorByte) & 0xff);
+            } else {
+                at = index & ~CHECKPOINT_MASK;
+                position = positions.checkpoint(at >>> CHECKPOINT_BITS);
+            }
+            while(at < index) {
+                position++;
+                while(isLineTerminator(byteAt(position))) {
+                    position++;
+                }
+                at++;
+            }
+            cursorIndex = index;
+            cursorByte = position;
+        }
+        return (char) (byteAt(cursorByte) & 0xff);
+    }
+
+    /**
+     * The first occurrence of literal in [from, limit), or -1 if there is none. Walks the mapped bytes
+     * directly, which is much cheaper than going through charAt for every character. The limit may lie
+     * behind the end of the text, the file is only indexed as far as the search gets.
+     */
+    public int indexOf(String literal, int from, int limit) {
+        int last = limit - literal.length();
+        if(literal.isEmpty()) {
+            return from <= limit && (from == 0 || hasCharAt(from - 1)) ? from : -1;
+        }
+        int tail = literal.length() - 1;
+        if(from < 0 || from > last || !hasCharAt(from + tail)) {
+            return -1;
+        }
+        for(int j = 0; j < literal.length(); j++) {
+            if(literal.charAt(j) > 0xff) {
+                return -1;
+            }
+        }
+        charAt(from);
+        long position = cursorByte;
+        byte first = (byte) literal.charAt(0);
+        for(int i = from; ; i++) {
+            if(byteAt(position) == first && matchesAt(position, literal)) {
+                cursorIndex = i;
+                cursorByte = position;
+                return i;
+            }
+            if(i == last || !hasCharAt(i + 1 + tail)) {
+                return -1;
+            }
+            position++;
+            while(isLineTerminator(byteAt(position))) {
+                position++;
+            }
+        }
+    }
+
+    private boolean matchesAt(long position, String literal) {
+        for(int j = 1; j < literal.length(); j++) {
+            position++;
+            while(isLineTerminator(byteAt(position))) {
+                position++;
+            }
+            if((byteAt(position) & 0xff) != literal.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Feeds the characters of the whole file to the session, without the limit on the length of the
+     * CharSequence view. Stops as soon as the session is finished and returns false then.
+     */
+    public boolean feed(MatchSession session) {
+        for(MappedByteBuffer segment : segments) {
+            // the runs between line terminators are fed as windows of a duplicate, the segment itself is only read
+            ByteBuffer bytes = segment.duplicate();
+            int start = 0;
+            for(int b = 0; b <= segment.capacity(); b++) {
+                if(b < segment.capacity() && !isLineTerminator(segment.get(b))) {
+                    continue;
+                }
+                if(b > start) {
+                    bytes.limit(b);
+                    bytes.position(start);
+                    if(!session.feed(bytes)) {
+                        return false;
+                    }
+                }
+                start = b + 1;
+            }
+        }
+        return !session.finished();
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if(start < 0 || start > end || end > 0 && !hasCharAt(end - 1)) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") is not within the text");
+        }
+        return new Slice(this, start, end);
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(this).toString();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static class Slice implements CharSequence {
+        private final CharSequence text;
+        private final int start;
+        private final int end;
+
+        Slice(CharSequence text, int start, int end) {
+            this.text = text;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if(index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + (end - start));
+            }
+            return text.charAt(start + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if(from < 0 || to > end - start || from > to) {
+                throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + (end - start));
+            }
+            return new Slice(text, start + from, start + to);
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder(this).toString();
+        }
+    }
+}
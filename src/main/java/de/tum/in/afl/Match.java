@@ -0,0 +1,23 @@
+package de.tum.in.afl;
+
+/**
+ * A match in a text: the characters from start (inclusive) to end (exclusive), both 0-based.
+ */
+public class Match {
+    public final int start;
+    public final int end;
+
+    public Match(int start, int end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + start + ", " + end + ")";
+    }
+}
@@ -0,0 +1,222 @@
+package de.tum.in.afl;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * Searches an input that arrives in chunks, e.g. from a socket, with the same restarting search as
+ * {@link EditDistanceMatcher#shortestMatch}. Only the active threads and the offset are kept between
+ * the chunks, so every chunk costs time linear in its length and earlier chunks are never looked at again.
+ * A match is reported to the listener as soon as its last character has been fed, and the search goes on
+ * behind it. Offsets are counted from the start of the stream, start inclusive and end exclusive.
+ */
+public class MatchSession {
+
+    public interface Listener {
+        // returning false ends the session
+        boolean match(long start, long end);
+    }
+
+    /**
+     * The state of a session at some offset, to continue from later on a session of the same pattern.
+     */
+    public static final class Snapshot implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        private final int states;
+        private final int editDistance;
+        // of the pattern, see PikeVM.fingerprint
+        private final long fingerprint;
+        private final long base;
+        private final long offset;
+        private final int[] threads;
+        private final long firstMatchEnd;
+        private final long shortestStart;
+        private final long shortestEnd;
+        private final long matches;
+        private final boolean finished;
+
+        private Snapshot(MatchSession session) {
+            this.states = session.states;
+            this.editDistance = session.editDistance;
+            this.fingerprint = session.fingerprint();
+            this.base = session.base;
+            this.offset = session.offset;
+            this.threads = session.vm.save();
+            this.firstMatchEnd = session.firstMatchEnd;
+            this.shortestStart = session.shortestStart;
+            this.shortestEnd = session.shortestEnd;
+            this.matches = session.matches;
+            this.finished = session.finished;
+        }
+
+        public long offset() {
+            return offset;
+        }
+    }
+
+    // the VM counts positions from base, which is moved up before they outgrow an int
+    private static final int REBASE = 1 << 30;
+
+    private final PikeVM vm;
+    private final int states;
+    private final int editDistance;
+    private final Listener listener;
+    private int rebase = REBASE;
+
+    private long base = 0;
+    private long offset = 0;
+    private long firstMatchEnd = -1;
+    private long shortestStart = -1;
+    private long shortestEnd = -1;
+    private long matches = 0;
+    private boolean finished = false;
+    // computed on the first snapshot or restore, 0 before
+    private long fingerprint = 0;
+
+    MatchSession(PikeVM vm, int states, int editDistance, Listener listener) {
+        this.vm = vm;
+        this.states = states;
+        this.editDistance = editDistance;
+        this.listener = listener;
+        vm.start(0);
+        vm.close();
+    }
+
+    // the words within the edit distance of the language of the epsilon-free pattern, anywhere in the stream
+    public static MatchSession of(Automaton pattern, int editDistance, Listener listener) {
+        return EditDistanceMatcher.search(pattern, editDistance).session(listener);
+    }
+
+    // all feed methods return false once the listener has ended the session, the rest of the chunk is ignored
+    public boolean feed(char[] chunk, int from, int to) {
+        for(int i = from; i < to && !finished; i++) {
+            step(chunk[i]);
+        }
+        return !finished;
+    }
+
+    public boolean feed(char[] chunk) {
+        return feed(chunk, 0, chunk.length);
+    }
+
+    public boolean feed(CharSequence chunk) {
+        for(int i = 0; i < chunk.length() && !finished; i++) {
+            step(chunk.charAt(i));
+        }
+        return !finished;
+    }
+
+    // one character per byte like MappedText, consumes the remaining bytes of the buffer
+    public boolean feed(ByteBuffer chunk) {
+        while(chunk.hasRemaining() && !finished) {
+            step((char) (chunk.get() & 0xff));
+        }
+        return !finished;
+    }
+
+    private void step(char c) {
+        if(offset - base >= rebase) {
+            rebase();
+        }
+        vm.step(c);
+        offset++;
+        int position = (int) (offset - base);
+        vm.start(position);
+        vm.close();
+
+        int matchStart = vm.matchStart();
+        if(matchStart == PikeVM.NO_START) {
+            return;
+        }
+        long start = base + matchStart;
+        if(firstMatchEnd == -1) {
+            firstMatchEnd = offset;
+        }
+        if(shortestStart == -1 || offset - start < shortestEnd - shortestStart) {
+            shortestStart = start;
+            shortestEnd = offset;
+        }
+        matches++;
+        // search again behind the match with a fresh universal prefix
+        vm.clear();
+        vm.start(position);
+        vm.close();
+        if(!listener.match(start, offset)) {
+            finished = true;
+        }
+    }
+
+    private void rebase() {
+        int position = (int) (offset - base);
+        int earliest = vm.earliestStart();
+        int delta = earliest == PikeVM.NO_START ? position : earliest;
+        if(delta == 0) {
+            throw new IllegalStateException("A partial match has been open for more than " + rebase + " characters");
+        }
+        vm.shift(delta);
+        base += delta;
+    }
+
+    // moves the base up every few characters instead of every REBASE, so tests get to see it
+    void rebaseEvery(int characters) {
+        if(characters < 1 || characters > REBASE) {
+            throw new IllegalArgumentException("The base is moved every 1 to " + REBASE + " characters");
+        }
+        rebase = characters;
+    }
+
+    private long fingerprint() {
+        if(fingerprint == 0) {
+            fingerprint = vm.fingerprint();
+        }
+        return fingerprint;
+    }
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    // snapshots of other patterns and damaged ones are rejected with an IllegalArgumentException
+    public void restore(Snapshot snapshot) {
+        if(snapshot.states != states || snapshot.editDistance != editDistance || snapshot.fingerprint != fingerprint()) {
+            throw new IllegalArgumentException("The snapshot was taken from a session of another pattern");
+        }
+        long position = snapshot.offset - snapshot.base;
+        if(snapshot.base < 0 || position < 0 || position > REBASE || snapshot.threads == null) {
+            throw new IllegalArgumentException("The snapshot is damaged, its offset " + snapshot.offset
+                    + " does not fit its base " + snapshot.base);
+        }
+        vm.restore(snapshot.threads, (int) position);
+        base = snapshot.base;
+        offset = snapshot.offset;
+        firstMatchEnd = snapshot.firstMatchEnd;
+        shortestStart = snapshot.shortestStart;
+        shortestEnd = snapshot.shortestEnd;
+        matches = snapshot.matches;
+        finished = snapshot.finished;
+    }
+
+    // the characters fed so far
+    public long offset() {
+        return offset;
+    }
+
+    // the end of the first match, the answer of tasks 1 and 2, -1 while there is none
+    public long firstMatchEnd() {
+        return firstMatchEnd;
+    }
+
+    // the first shortest match so far, the answer of tasks 3 and 4, null while there is none
+    public long[] shortestMatch() {
+        return shortestStart == -1 ? null : new long[]{shortestStart, shortestEnd};
+    }
+
+    public long matches() {
+        return matches;
+    }
+
+    public boolean finished() {
+        return finished;
+    }
+}
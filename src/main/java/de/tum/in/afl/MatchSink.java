@@ -0,0 +1,9 @@
+package de.tum.in.afl;
+
+/**
+ * Receives the matches found by a {@link Matcher}, start inclusive and end exclusive, both 0-based.
+ */
+public interface MatchSink {
+    // returning false stops the search
+    boolean match(int start, int end);
+}
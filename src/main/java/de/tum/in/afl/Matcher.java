@@ -0,0 +1,166 @@
+package de.tum.in.afl;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Enumerates the matches of a pattern in a text, i.e. the substrings within edit distance k of the language
+ * of an epsilon-free NFA, anywhere in the text. Matches are found lazily by find(), one at a time and without
+ * allocating anything per match, like {@link java.util.regex.Matcher#find()}.
+ * Patterns that accept the empty word are rejected, every position of the text would match them.
+ * Instances keep the position in the current text and must not be shared between threads.
+ */
+public class Matcher {
+
+    public enum Mode {
+        // non-overlapping matches, each starting as early as possible and ending as early as possible
+        LEFTMOST_SHORTEST,
+        // non-overlapping matches, each starting as early as possible and ending as late as possible
+        LEFTMOST_LONGEST,
+        // every position where a match ends, with the latest start of a match ending there
+        ALL_ENDS
+    }
+
+    private final Mode mode;
+    private final PikeVM vm;
+
+    private CharSequence text = "";
+    // the next character the simulation reads
+    private int position;
+    private int start = -1;
+    private int end = -1;
+
+    public Matcher(Automaton pattern, int editDistance, Mode mode) {
+        TransitionTable table = pattern.table();
+        for(int s = 0; s < table.size(); s++) {
+            if(table.hasEpsilons(s)) {
+                throw new AssertionError("Asserting non-Epsilon NFA! Did you forget to call removeEpsilons() ?");
+            }
+        }
+        if(EditDistanceMatcher.search(pattern, editDistance).acceptsEmptyWord()) {
+            throw new AssertionError("The pattern accepts the empty word, every position would match!");
+        }
+        this.mode = mode;
+        this.vm = new PikeVM(editDistance, table.size(), table.classes, table.offsets, table.symbols, table.targets,
+                new int[]{table.initial}, table.isFinal, mode == Mode.ALL_ENDS);
+    }
+
+    public Matcher reset(CharSequence text) {
+        this.text = text;
+        position = 0;
+        start = -1;
+        end = -1;
+        vm.clear();
+        return this;
+    }
+
+    // 0-based start of the last match found
+    public int start() {
+        if(end < 0) {
+            throw new IllegalStateException("No match available");
+        }
+        return start;
+    }
+
+    // 0-based end (exclusive) of the last match found
+    public int end() {
+        if(end < 0) {
+            throw new IllegalStateException("No match available");
+        }
+        return end;
+    }
+
+    // moves to the next match, false if there is none left
+    public boolean find() {
+        return mode == Mode.ALL_ENDS ? findEnd() : findLeftmost();
+    }
+
+    // reports the remaining matches until the sink refuses one, returns how many it accepted
+    public int forEach(MatchSink sink) {
+        int count = 0;
+        while(find()) {
+            if(!sink.match(start, end)) {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    // the remaining matches as a lazy stream, this allocates one Match per element
+    public Stream<Match> stream() {
+        Spliterator<Match> matches = new Spliterators.AbstractSpliterator<Match>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT) {
+            @Override
+            public boolean tryAdvance(Consumer<? super Match> action) {
+                if(!find()) {
+                    return false;
+                }
+                action.accept(new Match(start, end));
+                return true;
+            }
+        };
+        return StreamSupport.stream(matches, false);
+    }
+
+    private boolean findEnd() {
+        if(position == 0 && vm.size() == 0) {
+            vm.start(0);
+            vm.close();
+        }
+        while(position < text.length()) {
+            vm.step(text.charAt(position++));
+            vm.start(position);
+            vm.close();
+            int matchStart = vm.matchStart();
+            if(matchStart != PikeVM.NO_START) {
+                start = matchStart;
+                end = position;
+                return true;
+            }
+        }
+        end = -1;
+        return false;
+    }
+
+    private boolean findLeftmost() {
+        vm.clear();
+        int bestStart = PikeVM.NO_START;
+        int bestEnd = PikeVM.NO_START;
+        while(true) {
+            // threads starting behind the best match so far can't start further left
+            if(bestStart == PikeVM.NO_START) {
+                vm.start(position);
+            }
+            vm.close();
+            int matchStart = vm.matchStart();
+            if(matchStart != PikeVM.NO_START && (bestStart == PikeVM.NO_START || matchStart < bestStart
+                    || (matchStart == bestStart && mode == Mode.LEFTMOST_LONGEST))) {
+                bestStart = matchStart;
+                bestEnd = position;
+            }
+            if(bestStart != PikeVM.NO_START) {
+                vm.keepStartsBefore(mode == Mode.LEFTMOST_LONGEST ? bestStart + 1 : bestStart);
+                if(vm.size() == 0) {
+                    break;
+                }
+            }
+            if(position == text.length()) {
+                break;
+            }
+            vm.step(text.charAt(position++));
+        }
+        vm.clear();
+        if(bestStart == PikeVM.NO_START) {
+            end = -1;
+            return false;
+        }
+        // the next match starts behind this one
+        position = bestEnd;
+        start = bestStart;
+        end = bestEnd;
+        return true;
+    }
+}
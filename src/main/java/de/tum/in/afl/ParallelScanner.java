@@ -0,0 +1,262 @@
+package de.tum.in.afl;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Scans long inputs on several cores. The text is cut into chunks and every chunk is simulated from all
+ * NFA states at once: for each state q we track the set of start states ("origins") from which q is active.
+ * Since the subset simulation distributes over unions, the summaries of the chunks can then be stitched
+ * together in order, which gives exactly the results of the sequential {@link Automaton#run}.
+ * A run keeps a bounded window of chunks in flight ahead of the stitched prefix, so a match near the start
+ * of the text stops the scan after a few chunks instead of after all of them.
+ */
+public class ParallelScanner implements Engine {
+
+    // every state carries a set of origins, which costs a word per state and character up to 64 states,
+    // beyond that the summaries are slower than the sequential engines even on many cores
+    public static final int MAX_STATES = 64;
+    public static final int CHUNK = 1 << 16;
+    // a summary step costs several times a step of the sequential engines, fewer cores do not make up for it
+    public static final int MIN_PARALLELISM = 8;
+
+    private final TransitionTable table;
+    private final int n;
+    private final int words;
+    private final ForkJoinPool pool;
+
+    // what running one chunk does to every single start state
+    private static class Summary {
+        // reach[s * words ..] is the set of states active at the end of the chunk when starting in s
+        final long[] reach;
+        // 1-based offset of the first step that reaches a final state from s, 0 if there is none
+        final int[] firstMatch;
+        // the most states active at once and the transitions followed, for Stats
+        final int peak;
+        final long examined;
+
+        Summary(long[] reach, int[] firstMatch, int peak, long examined) {
+            this.reach = reach;
+            this.firstMatch = firstMatch;
+            this.peak = peak;
+            this.examined = examined;
+        }
+    }
+
+    public static boolean fits(Automaton nfa) {
+        return nfa.table().size() <= MAX_STATES;
+    }
+
+    // only pays off for texts of several chunks on a machine with enough cores
+    public static boolean worthIt(CharSequence text) {
+        return Runtime.getRuntime().availableProcessors() >= MIN_PARALLELISM && MappedText.lengthUpTo(text, 4 * CHUNK) == 4 * CHUNK;
+    }
+
+    public ParallelScanner(Automaton nfa) {
+        this(nfa, ForkJoinPool.commonPool());
+    }
+
+    public ParallelScanner(Automaton nfa, ForkJoinPool pool) {
+        this.table = nfa.table();
+        this.n = table.size();
+        if(n > MAX_STATES) {
+            throw new IllegalArgumentException("Automaton has " + n + " states, at most " + MAX_STATES + " are supported");
+        }
+        for(int s = 0; s < n; s++) {
+            if(table.hasEpsilons(s)) {
+                throw new AssertionError("Asserting non-Epsilon NFA! Did you forget to call removeEpsilons() ?");
+            }
+        }
+        this.words = (n + 63) >>> 6;
+        this.pool = pool;
+    }
+
+    @Override
+    public int run(CharSequence word, boolean stopAtMatch) {
+        Stats.RunTimer run = Stats.run("parallel");
+        if(table.isFinal[table.initial]) {
+            return run.end(0, 0, 1, 0, 0);
+        }
+        // the chunks are summarized ahead of the stitching, at most two per worker at a time
+        int window = 2 * Math.max(1, pool.getParallelism());
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ArrayDeque<ForkJoinTask<Summary>> inFlight = new ArrayDeque<>();
+        ArrayDeque<Integer> starts = new ArrayDeque<>();
+        int submitted = 0;
+        int peak = 1;
+        long examined = 0;
+        long[] current = new long[words];
+        set(current, 0, table.initial);
+        try {
+            while(true) {
+                while(inFlight.size() < window && MappedText.hasCharAt(word, submitted)) {
+                    int from = submitted;
+                    int to = MappedText.lengthUpTo(word, (int) Math.min(Integer.MAX_VALUE, (long) from + CHUNK));
+                    CharSequence view = view(word);
+                    inFlight.add(pool.submit(() -> summarize(view, from, to, cancelled)));
+                    starts.add(from);
+                    submitted = to;
+                }
+                if(inFlight.isEmpty()) {
+                    break;
+                }
+                Summary summary = inFlight.poll().join();
+                int from = starts.poll();
+                peak = Math.max(peak, summary.peak);
+                examined += summary.examined;
+                if(stopAtMatch) {
+                    int first = Integer.MAX_VALUE;
+                    for(int s = nextSet(current, 0); s >= 0; s = nextSet(current, s + 1)) {
+                        if(summary.firstMatch[s] > 0) {
+                            first = Math.min(first, summary.firstMatch[s]);
+                        }
+                    }
+                    if(first != Integer.MAX_VALUE) {
+                        return run.end(from + first, submitted, peak, examined, 0);
+                    }
+                }
+                current = apply(summary, current);
+                if(nextSet(current, 0) < 0) {
+                    return run.end(-1, submitted, peak, examined, 0);
+                }
+            }
+        } finally {
+            // the chunks behind an early result are not needed anymore
+            cancelled.set(true);
+            for(ForkJoinTask<Summary> task : inFlight) {
+                task.cancel(false);
+            }
+        }
+        for(int s = nextSet(current, 0); s >= 0; s = nextSet(current, s + 1)) {
+            if(table.isFinal[s]) {
+                return run.end(submitted, submitted, peak, examined, 0);
+            }
+        }
+        return run.end(-1, submitted, peak, examined, 0);
+    }
+
+    // mapped texts keep a read cursor, so every task needs its own view
+    private static CharSequence view(CharSequence word) {
+        return word instanceof MappedText ? ((MappedText) word).view() : word;
+    }
+
+    // null if cancelled is set before the chunk is done
+    private Summary summarize(CharSequence word, int from, int to, AtomicBoolean cancelled) {
+        // origins[q * words ..] is the set of start states from which q is active
+        long[] origins = new long[n * words];
+        long[] next = new long[n * words];
+        int[] active = new int[n];
+        int[] nextActive = new int[n];
+        boolean[] listed = new boolean[n];
+        int size = n;
+        for(int s = 0; s < n; s++) {
+            set(origins, s * words, s);
+            active[s] = s;
+        }
+
+        int[] firstMatch = new int[n];
+        int peak = size;
+        long examined = 0;
+        long[] pending = new long[words];
+        for(int s = 0; s < n; s++) {
+            set(pending, 0, s);
+        }
+
+        for(int i = from; i < to && size > 0; i++) {
+            if((i & 0xfff) == 0 && cancelled.get()) {
+                return null;
+            }
+            char c = table.classes.of(word.charAt(i));
+            int nextSize = 0;
+            for(int k = 0; k < size; k++) {
+                int q = active[k];
+                int end = table.offsets[q + 1];
+                for(int e = table.firstEdge(q, c); e < end && table.symbols[e] == c; e++) {
+                    examined++;
+                    int target = table.targets[e];
+                    if(!listed[target]) {
+                        listed[target] = true;
+                        nextActive[nextSize++] = target;
+                    }
+                    for(int w = 0; w < words; w++) {
+                        next[target * words + w] |= origins[q * words + w];
+                    }
+                }
+            }
+            for(int k = 0; k < size; k++) {
+                Arrays.fill(origins, active[k] * words, (active[k] + 1) * words, 0L);
+            }
+            long[] tmp = origins;
+            origins = next;
+            next = tmp;
+            int[] tmpActive = active;
+            active = nextActive;
+            nextActive = tmpActive;
+            size = nextSize;
+            peak = Math.max(peak, size);
+
+            for(int k = 0; k < size; k++) {
+                int q = active[k];
+                listed[q] = false;
+                if(!table.isFinal[q]) {
+                    continue;
+                }
+                for(int w = 0; w < words; w++) {
+                    long matched = origins[q * words + w] & pending[w];
+                    pending[w] &= ~matched;
+                    while(matched != 0) {
+                        firstMatch[(w << 6) + Long.numberOfTrailingZeros(matched)] = i - from + 1;
+                        matched &= matched - 1;
+                    }
+                }
+            }
+        }
+
+        long[] reach = new long[n * words];
+        for(int k = 0; k < size; k++) {
+            int q = active[k];
+            for(int w = 0; w < words; w++) {
+                long origin = origins[q * words + w];
+                while(origin != 0) {
+                    int s = (w << 6) + Long.numberOfTrailingZeros(origin);
+                    set(reach, s * words, q);
+                    origin &= origin - 1;
+                }
+            }
+        }
+        return new Summary(reach, firstMatch, peak, examined);
+    }
+
+    private long[] apply(Summary summary, long[] states) {
+        long[] result = new long[words];
+        for(int s = nextSet(states, 0); s >= 0; s = nextSet(states, s + 1)) {
+            for(int w = 0; w < words; w++) {
+                result[w] |= summary.reach[s * words + w];
+            }
+        }
+        return result;
+    }
+
+    private static void set(long[] bits, int base, int index) {
+        bits[base + (index >>> 6)] |= 1L << (index & 63);
+    }
+
+    private int nextSet(long[] bits, int from) {
+        int w = from >>> 6;
+        if(w >= words) {
+            return -1;
+        }
+        long word = bits[w] & (-1L << (from & 63));
+        while(true) {
+            if(word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if(++w == words) {
+                return -1;
+            }
+            word = bits[w];
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Thread-safe LRU cache of compiled automata, keyed by the canonical form of the regex AST, the kind of
+ * automaton and the edit distance. It is bounded both by the number of entries and by their total weight,
+ * which is the number of transitions. Every automaton is built once even if several threads ask for it
+ * at the same time, and its transition table is built before it is handed out, so the cached automata
+ * are never modified afterwards. Engines on top of them keep scratch state and have to be created per thread.
+ */
+public class PatternCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+    public static final long DEFAULT_MAX_WEIGHT = 1L << 22;
+
+    public enum Kind {
+        // Automaton.fromRegexWithPrefix, matches anywhere in the input
+        PREFIXED,
+        // Automaton.fromRegex (or ...ByDerivatives if it stays small, see Main.DERIVATIVES), the epsilon-free
+        // pattern used by the matchers
+        PATTERN,
+        // Main.buildEditAutomaton for the given edit distance
+        EDIT
+    }
+
+    private static final class Key {
+        final String regex;
+        final Kind kind;
+        final int editDistance;
+
+        Key(String regex, Kind kind, int editDistance) {
+            this.regex = regex;
+            this.kind = kind;
+            this.editDistance = editDistance;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if(!(other instanceof Key)) return false;
+            Key o = (Key) other;
+            return regex.equals(o.regex) && kind == o.kind && editDistance == o.editDistance;
+        }
+
+        @Override
+        public int hashCode() {
+            return (regex.hashCode() * 31 + kind.hashCode()) * 31 + editDistance;
+        }
+    }
+
+    private static final class Entry {
+        final FutureTask<Automaton> automaton;
+        // 0 while the automaton is still being built
+        long weight = 0;
+
+        Entry(FutureTask<Automaton> automaton) {
+            this.automaton = automaton;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxWeight;
+    // in access order, the eldest entry is the least recently used one
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    public PatternCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT);
+    }
+
+    public PatternCache(int maxEntries, long maxWeight) {
+        if(maxEntries < 1 || maxWeight < 1) {
+            throw new IllegalArgumentException("The cache must have room for at least one entry");
+        }
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+    }
+
+    public Automaton get(CommonTree ast, Kind kind, int editDistance) {
+        if(kind != Kind.EDIT) {
+            editDistance = 0;
+        }
+        Key key = new Key(ast.toStringTree(), kind, editDistance);
+        Entry entry;
+        boolean build = false;
+        synchronized(this) {
+            entry = entries.get(key);
+            if(entry != null) {
+                hits++;
+            } else {
+                misses++;
+                int k = editDistance;
+                entry = new Entry(new FutureTask<>(() -> compile(ast, kind, k)));
+                entries.put(key, entry);
+                build = true;
+            }
+        }
+
+        if(build) {
+            entry.automaton.run();
+        }
+        Automaton automaton;
+        try {
+            automaton = entry.automaton.get();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for " + key.regex + " to be compiled", e);
+        } catch(ExecutionException e) {
+            synchronized(this) {
+                entries.remove(key, entry);
+            }
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if(e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+
+        if(build) {
+            synchronized(this) {
+                // it may have been evicted while it was built
+                if(entries.get(key) == entry) {
+                    entry.weight = automaton.table().edgeCount();
+                    weight += entry.weight;
+                    evict();
+                }
+            }
+        }
+        return automaton;
+    }
+
+    private static Automaton compile(CommonTree ast, Kind kind, int editDistance) {
+        Automaton automaton;
+        Stats.PhaseTimer phase;
+        switch(kind) {
+            case PREFIXED:
+                // the universal prefix makes the DFA explode for regexes like (a|b)*a(a|b)^k, the NFA engines
+                // determinize it lazily, as far as the input needs
+                phase = Stats.phase("fromRegexWithPrefix");
+                automaton = phase.end(Automaton.fromRegexWithPrefix(ast));
+                break;
+            case PATTERN:
+                automaton = Main.DERIVATIVES ? byDerivatives(ast) : null;
+                if(automaton == null) {
+                    phase = Stats.phase("fromRegex");
+                    automaton = phase.end(Automaton.fromRegex(ast));
+                }
+                break;
+            default:
+                automaton = Main.buildEditAutomaton(ast, editDistance);
+                break;
+        }
+        automaton.table();
+        return automaton;
+    }
+
+    // the matchers pay per active state, a DFA many times larger than the NFA does not pay off
+    static final int DERIVATIVE_STATES_PER_NFA_STATE = 64;
+
+    // the DFA built with derivatives, or null if it would be much larger than the Thompson NFA
+    static Automaton byDerivatives(CommonTree ast) {
+        int maxStates = DERIVATIVE_STATES_PER_NFA_STATE * RegexSimplifier.thompsonStates(ast);
+        try {
+            Stats.PhaseTimer phase = Stats.phase("fromRegexByDerivatives");
+            return phase.end(Automaton.fromRegexByDerivatives(ast, maxStates, Runtime.getRuntime().maxMemory() / 2));
+        } catch(StateExplosionException e) {
+            return null;
+        }
+    }
+
+    // drops least recently used entries until both bounds hold again, but always keeps the newest one
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while((entries.size() > maxEntries || weight > maxWeight) && entries.size() > 1) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            weight -= entry.weight;
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    // total number of transitions of the cached automata
+    public synchronized long weight() {
+        return weight;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+}
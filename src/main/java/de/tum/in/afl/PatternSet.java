@@ -0,0 +1,298 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * Many patterns searched in one pass over the text. The epsilon-free pattern automata are copied into a
+ * single table behind one shared start state, which loops on every character like {@link Automaton#universal()}
+ * and reads the first letters of every pattern. Each state remembers the pattern it came from, so an
+ * accepting subset knows which patterns end at the current position. The subsets are determinized lazily
+ * and memoized like in {@link LazyDFA}, so once the cache is warm a character costs the same whatever the
+ * number of patterns.
+ * Instances keep their cache between scans and must not be shared between threads.
+ */
+public class PatternSet {
+
+    // called for every pattern that has a match ending at end, returning false stops the scan
+    public interface Sink {
+        boolean match(int pattern, int end);
+    }
+
+    private static final int UNKNOWN = -1;
+    private static final int START = 0;
+    private static final int[] NO_PATTERNS = new int[0];
+
+    private final int patterns;
+    private final TransitionTable table;
+    // the character classes of all patterns, every class gets a cache column
+    private final CharClasses classes;
+    // the pattern every state belongs to, -1 for the shared start state
+    private final int[] patternOf;
+    // patterns that accept the empty word, they match wherever the start state is live
+    private final int[] emptyMatches;
+    private final long maxCacheBytes;
+
+    private final HashMap<Subset, Integer> ids = new HashMap<>();
+    private final ArrayList<int[]> subsets = new ArrayList<>();
+    private final ArrayList<int[]> next = new ArrayList<>();
+    private final ArrayList<int[]> matches = new ArrayList<>();
+    private long cacheBytes = 0;
+
+    private final int[] seen;
+    private final int[] buffer;
+    private int stamp = 0;
+
+    public PatternSet(List<Automaton> patterns) {
+        this(patterns, LazyDFA.DEFAULT_CACHE_BYTES);
+    }
+
+    public PatternSet(List<Automaton> patterns, long maxCacheBytes) {
+        this.patterns = patterns.size();
+        this.maxCacheBytes = maxCacheBytes;
+
+        TransitionTable[] tables = new TransitionTable[this.patterns];
+        ArrayList<CharClasses> partitions = new ArrayList<>();
+        int[] base = new int[this.patterns];
+        int n = 1;
+        for(int p = 0; p < this.patterns; p++) {
+            tables[p] = patterns.get(p).table();
+            partitions.add(tables[p].classes);
+            base[p] = n;
+            n += tables[p].size();
+        }
+        // the patterns tell different characters apart, the merged table needs classes that refine all of them
+        classes = CharClasses.common(partitions);
+        int[][] firstClass = new int[this.patterns][];
+        int[][] lastClass = new int[this.patterns][];
+        int edges = 0;
+        for(int p = 0; p < this.patterns; p++) {
+            TransitionTable t = tables[p];
+            firstClass[p] = new int[t.classes.count()];
+            lastClass[p] = new int[t.classes.count()];
+            for(int k = 0; k < t.classes.count(); k++) {
+                firstClass[p][k] = classes.of(t.classes.first(k));
+                lastClass[p][k] = classes.of(t.classes.last(k));
+            }
+            for(int e = 0; e < t.edgeCount(); e++) {
+                edges += lastClass[p][t.symbols[e]] - firstClass[p][t.symbols[e]] + 1;
+            }
+        }
+
+        // the edges of the start state: the loops on every class and the edges of every pattern's initial state
+        ArrayList<Long> startEdges = new ArrayList<>();
+        for(int k = 0; k < classes.count(); k++) {
+            startEdges.add(edge(k, START));
+        }
+        int empty = 0;
+        for(int p = 0; p < this.patterns; p++) {
+            TransitionTable t = tables[p];
+            if(t.isFinal[t.initial]) {
+                empty++;
+            }
+            for(int e = t.offsets[t.initial]; e < t.offsets[t.initial + 1]; e++) {
+                if(e < t.letterStart[t.initial]) {
+                    throw new AssertionError("Asserting non-Epsilon NFA! Did you forget to call removeEpsilons() ?");
+                }
+                for(int k = firstClass[p][t.symbols[e]]; k <= lastClass[p][t.symbols[e]]; k++) {
+                    startEdges.add(edge(k, base[p] + t.targets[e]));
+                }
+            }
+        }
+        Collections.sort(startEdges);
+
+        boolean[] isFinal = new boolean[n];
+        patternOf = new int[n];
+        int[] offsets = new int[n + 1];
+        int[] letterStart = new int[n];
+        char[] symbols = new char[startEdges.size() + edges];
+        int[] targets = new int[startEdges.size() + edges];
+        emptyMatches = new int[empty];
+
+        patternOf[START] = -1;
+        int m = 0;
+        for(long e : startEdges) {
+            symbols[m] = (char) (e >>> 32);
+            targets[m++] = (int) e;
+        }
+        empty = 0;
+        for(int p = 0; p < this.patterns; p++) {
+            TransitionTable t = tables[p];
+            if(t.isFinal[t.initial]) {
+                emptyMatches[empty++] = p;
+            }
+            for(int s = 0; s < t.size(); s++) {
+                if(t.hasEpsilons(s)) {
+                    throw new AssertionError("Asserting non-Epsilon NFA! Did you forget to call removeEpsilons() ?");
+                }
+                int id = base[p] + s;
+                isFinal[id] = t.isFinal[s];
+                patternOf[id] = p;
+                offsets[id] = m;
+                letterStart[id] = m;
+                // the edges of s are sorted by class and the classes of a pattern map to increasing merged classes
+                for(int e = t.offsets[s]; e < t.offsets[s + 1]; e++) {
+                    for(int k = firstClass[p][t.symbols[e]]; k <= lastClass[p][t.symbols[e]]; k++) {
+                        symbols[m] = (char) k;
+                        targets[m++] = base[p] + t.targets[e];
+                    }
+                }
+            }
+        }
+        offsets[n] = m;
+        table = new TransitionTable(START, isFinal, classes, offsets, letterStart, symbols, targets);
+
+        seen = new int[n];
+        // a subset holds at most n states, matchesOf adds the empty matches on top
+        buffer = new int[n + empty];
+    }
+
+    // compiles the patterns for exact matching, or with up to editDistance edits if their edit automata fit Main.BUDGET
+    public static PatternSet fromRegex(List<org.antlr.runtime.tree.CommonTree> asts, int editDistance) {
+        ArrayList<Automaton> patterns = new ArrayList<>();
+        for(var ast : asts) {
+            patterns.add(editDistance == 0 ? Automaton.fromRegex(ast) : Main.editAutomaton(ast, editDistance));
+        }
+        return new PatternSet(patterns);
+    }
+
+    private static long edge(int symbol, int target) {
+        return ((long) symbol << 32) | target;
+    }
+
+    public int size() {
+        return patterns;
+    }
+
+    public int cachedStates() {
+        return subsets.size();
+    }
+
+    // reports every (pattern, end) pair in the order of the ends, end being exclusive like in run
+    public void scan(CharSequence text, Sink sink) {
+        for(int p : emptyMatches) {
+            if(!sink.match(p, 0)) {
+                return;
+            }
+        }
+        if(subsets.isEmpty()) {
+            intern(new int[]{START});
+        }
+        // the start subset is interned first and survives flushes, so it always has id 0
+        int current = 0;
+
+        for(int i = 0; MappedText.hasCharAt(text, i); i++) {
+            char c = classes.of(text.charAt(i));
+            int target = next.get(current)[c];
+            if(target == UNKNOWN) {
+                int[] states = step(subsets.get(current), c);
+                if(cacheBytes > maxCacheBytes) {
+                    flush();
+                    target = intern(states);
+                } else {
+                    target = intern(states);
+                    next.get(current)[c] = target;
+                }
+            }
+            current = target;
+            if(subsets.get(current).length == 0) {
+                return;
+            }
+            for(int p : matches.get(current)) {
+                if(!sink.match(p, i + 1)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // the end of the first match of every pattern like Automaton.run with stopAtMatch, -1 if it has none
+    public int[] firstMatchEnds(CharSequence text) {
+        int[] ends = new int[patterns];
+        Arrays.fill(ends, -1);
+        if(patterns == 0) {
+            return ends;
+        }
+        int[] missing = {patterns};
+        scan(text, (pattern, end) -> {
+            if(ends[pattern] == -1) {
+                ends[pattern] = end;
+                missing[0]--;
+            }
+            return missing[0] > 0;
+        });
+        return ends;
+    }
+
+    private int[] step(int[] states, char c) {
+        stamp++;
+        int size = 0;
+        for(int s : states) {
+            int end = table.offsets[s + 1];
+            for(int e = table.firstEdge(s, c); e < end && table.symbols[e] == c; e++) {
+                int to = table.targets[e];
+                if(seen[to] != stamp) {
+                    seen[to] = stamp;
+                    buffer[size++] = to;
+                }
+            }
+        }
+        int[] result = Arrays.copyOf(buffer, size);
+        Arrays.sort(result);
+        return result;
+    }
+
+    // the patterns with a final state in the subset, and those accepting the empty word while the start state is live
+    private int[] matchesOf(int[] states) {
+        int size = 0;
+        if(states.length > 0 && states[0] == START) {
+            for(int p : emptyMatches) {
+                buffer[size++] = p;
+            }
+        }
+        for(int s : states) {
+            if(table.isFinal[s]) {
+                buffer[size++] = patternOf[s];
+            }
+        }
+        if(size == 0) {
+            return NO_PATTERNS;
+        }
+        Arrays.sort(buffer, 0, size);
+        int distinct = 1;
+        for(int i = 1; i < size; i++) {
+            if(buffer[i] != buffer[distinct - 1]) {
+                buffer[distinct++] = buffer[i];
+            }
+        }
+        return Arrays.copyOf(buffer, distinct);
+    }
+
+    private int intern(int[] states) {
+        Subset key = new Subset(states);
+        Integer id = ids.get(key);
+        if(id != null) {
+            return id;
+        }
+        id = subsets.size();
+        ids.put(key, id);
+        subsets.add(states);
+        int[] row = new int[classes.count()];
+        Arrays.fill(row, UNKNOWN);
+        next.add(row);
+        int[] found = matchesOf(states);
+        matches.add(found);
+        // row, subset array, matches, key and map entry
+        cacheBytes += 16 + 4L * classes.count() + 16 + 4L * states.length + 16 + 4L * found.length + 32 + 48;
+        return id;
+    }
+
+    // drops the cache but keeps the start subset at id 0
+    private void flush() {
+        ids.clear();
+        subsets.clear();
+        next.clear();
+        matches.clear();
+        cacheBytes = 0;
+        intern(new int[]{START});
+    }
+}
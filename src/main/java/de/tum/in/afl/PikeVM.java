@@ -0,0 +1,274 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * Simulates an epsilon-free NFA within edit distance k and remembers, for every state and number of edits,
+ * where the thread that got there started. Of several threads in the same state with the same number of
+ * edits only the latest or only the earliest start is kept, depending on what the caller is looking for;
+ * the others can only produce the same match ends with a worse start.
+ * Insertions and replacements use any character, like {@link Automaton#toEditAutomaton(int)}.
+ */
+class PikeVM {
+
+    static final int NO_START = -1;
+
+    private final int editDistance;
+    private final int levels;
+    private final CharClasses classes;
+    private final int[] offsets;
+    private final char[] symbols;
+    private final int[] targets;
+    private final int[] initial;
+    private final boolean[] isFinal;
+    private final boolean latest;
+
+    // starts[q * levels + j] is the start of the thread in q with j edits, NO_START if there is none
+    private int[] starts;
+    private int[] nextStarts;
+    private int[] current;
+    private int[] next;
+    private boolean[] listed;
+    private boolean[] nextListed;
+    private int size = 0;
+    // edges looked at by step() and close(), for the run statistics
+    private long examined = 0;
+
+    PikeVM(int editDistance, int n, CharClasses classes, int[] offsets, char[] symbols, int[] targets, int[] initial,
+           boolean[] isFinal, boolean latest) {
+        this.editDistance = editDistance;
+        this.levels = editDistance + 1;
+        this.classes = classes;
+        this.offsets = offsets;
+        this.symbols = symbols;
+        this.targets = targets;
+        this.initial = initial;
+        this.isFinal = isFinal;
+        this.latest = latest;
+
+        starts = new int[n * levels];
+        nextStarts = new int[n * levels];
+        Arrays.fill(starts, NO_START);
+        Arrays.fill(nextStarts, NO_START);
+        current = new int[n];
+        next = new int[n];
+        listed = new boolean[n];
+        nextListed = new boolean[n];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long examined() {
+        return examined;
+    }
+
+    // starts new threads in the initial states, call close() afterwards
+    void start(int position) {
+        for(int q : initial) {
+            size = offer(starts, current, listed, size, q, q * levels, position);
+        }
+    }
+
+    // reads c with every thread, call close() afterwards
+    void step(char c) {
+        char k = classes.of(c);
+        int nextSize = 0;
+        for(int i = 0; i < size; i++) {
+            int q = current[i];
+            for(int j = 0; j < levels; j++) {
+                int start = starts[q * levels + j];
+                if(start == NO_START) {
+                    continue;
+                }
+                if(j < editDistance) {
+                    // insertion
+                    nextSize = offer(nextStarts, next, nextListed, nextSize, q, q * levels + j + 1, start);
+                }
+                examined += offsets[q + 1] - offsets[q];
+                for(int e = offsets[q]; e < offsets[q + 1]; e++) {
+                    int to = targets[e];
+                    if(symbols[e] == k) {
+                        nextSize = offer(nextStarts, next, nextListed, nextSize, to, to * levels + j, start);
+                    } else if(j < editDistance) {
+                        // replacement
+                        nextSize = offer(nextStarts, next, nextListed, nextSize, to, to * levels + j + 1, start);
+                    }
+                }
+            }
+        }
+        clear();
+        int[] tmp = starts;
+        starts = nextStarts;
+        nextStarts = tmp;
+        tmp = current;
+        current = next;
+        next = tmp;
+        boolean[] tmpListed = listed;
+        listed = nextListed;
+        nextListed = tmpListed;
+        size = nextSize;
+    }
+
+    // deleting a letter of the pattern raises the number of edits by one, so every level only feeds the next one
+    void close() {
+        for(int j = 0; j < editDistance; j++) {
+            int count = size;
+            for(int k = 0; k < count; k++) {
+                int q = current[k];
+                int start = starts[q * levels + j];
+                if(start == NO_START) {
+                    continue;
+                }
+                examined += offsets[q + 1] - offsets[q];
+                for(int e = offsets[q]; e < offsets[q + 1]; e++) {
+                    int to = targets[e];
+                    size = offer(starts, current, listed, size, to, to * levels + j + 1, start);
+                }
+            }
+        }
+    }
+
+    // the best start of a thread in a final state, NO_START if no final state is active
+    int matchStart() {
+        int best = NO_START;
+        for(int k = 0; k < size; k++) {
+            int q = current[k];
+            if(isFinal[q]) {
+                for(int j = 0; j < levels; j++) {
+                    best = better(best, starts[q * levels + j]);
+                }
+            }
+        }
+        return best;
+    }
+
+    // drops every thread that started at or after limit
+    void keepStartsBefore(int limit) {
+        int kept = 0;
+        for(int k = 0; k < size; k++) {
+            int q = current[k];
+            boolean alive = false;
+            for(int j = 0; j < levels; j++) {
+                if(starts[q * levels + j] >= limit) {
+                    starts[q * levels + j] = NO_START;
+                }
+                alive |= starts[q * levels + j] != NO_START;
+            }
+            if(alive) {
+                current[kept++] = q;
+            } else {
+                listed[q] = false;
+            }
+        }
+        size = kept;
+    }
+
+    // the earliest start of a thread, NO_START if there is none
+    int earliestStart() {
+        int earliest = NO_START;
+        for(int k = 0; k < size; k++) {
+            int q = current[k];
+            for(int j = 0; j < levels; j++) {
+                int start = starts[q * levels + j];
+                if(start != NO_START && (earliest == NO_START || start < earliest)) {
+                    earliest = start;
+                }
+            }
+        }
+        return earliest;
+    }
+
+    // moves every start delta positions back, no thread may start before delta
+    void shift(int delta) {
+        for(int k = 0; k < size; k++) {
+            int q = current[k];
+            for(int j = 0; j < levels; j++) {
+                if(starts[q * levels + j] != NO_START) {
+                    starts[q * levels + j] -= delta;
+                }
+            }
+        }
+    }
+
+    // the threads as (state, start for every number of edits) tuples
+    int[] save() {
+        int[] threads = new int[size * (1 + levels)];
+        for(int k = 0; k < size; k++) {
+            int q = current[k];
+            threads[k * (1 + levels)] = q;
+            System.arraycopy(starts, q * levels, threads, k * (1 + levels) + 1, levels);
+        }
+        return threads;
+    }
+
+    // replaces the threads by ones saved from a VM of the same automaton and edit distance, whose starts are
+    // at most position
+    void restore(int[] threads, int position) {
+        int n = current.length;
+        if(threads.length % (1 + levels) != 0) {
+            throw new IllegalArgumentException("The threads do not match the edit distance " + editDistance);
+        }
+        boolean[] seen = new boolean[n];
+        for(int i = 0; i < threads.length; i += 1 + levels) {
+            int q = threads[i];
+            if(q < 0 || q >= n || seen[q]) {
+                throw new IllegalArgumentException("State " + q + " is not a state of this automaton or saved twice");
+            }
+            seen[q] = true;
+            for(int j = 1; j <= levels; j++) {
+                int start = threads[i + j];
+                if(start != NO_START && (start < 0 || start > position)) {
+                    throw new IllegalArgumentException("A thread in state " + q + " starts at " + start
+                            + ", which is not within [0, " + position + "]");
+                }
+            }
+        }
+        clear();
+        for(int i = 0; i < threads.length; i += 1 + levels) {
+            int q = threads[i];
+            System.arraycopy(threads, i + 1, starts, q * levels, levels);
+            listed[q] = true;
+            current[size++] = q;
+        }
+    }
+
+    // identifies the automaton and the edit distance, e.g. to check where saved threads came from
+    long fingerprint() {
+        long hash = editDistance;
+        for(int k = 0; k < classes.count(); k++) {
+            hash = hash * 31 + classes.first(k);
+        }
+        hash = hash * 1_000_003 + Arrays.hashCode(offsets);
+        hash = hash * 1_000_003 + Arrays.hashCode(symbols);
+        hash = hash * 1_000_003 + Arrays.hashCode(targets);
+        hash = hash * 1_000_003 + Arrays.hashCode(initial);
+        hash = hash * 1_000_003 + Arrays.hashCode(isFinal);
+        return hash * 2 + (latest ? 1 : 0);
+    }
+
+    void clear() {
+        for(int k = 0; k < size; k++) {
+            int q = current[k];
+            Arrays.fill(starts, q * levels, (q + 1) * levels, NO_START);
+            listed[q] = false;
+        }
+        size = 0;
+    }
+
+    private int better(int a, int b) {
+        if(a == NO_START) return b;
+        if(b == NO_START) return a;
+        return latest ? Math.max(a, b) : Math.min(a, b);
+    }
+
+    private int offer(int[] starts, int[] list, boolean[] listed, int size, int q, int slot, int start) {
+        starts[slot] = better(starts[slot], start);
+        if(!listed[q]) {
+            listed[q] = true;
+            list[size++] = q;
+        }
+        return size;
+    }
+}
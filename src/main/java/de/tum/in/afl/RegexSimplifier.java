@@ -0,0 +1,276 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.CommonToken;
+import org.antlr.runtime.tree.CommonTree;
+
+import java.util.*;
+
+/**
+ * Rewrites a regex AST into a smaller one with the same language before Thompson's construction, which turns
+ * every node into states and epsilon edges that the edit automaton later copies into every layer.
+ * Nested stars are flattened and stars drop the epsilon and star alternatives they do not need, the empty set
+ * and the empty word are absorbed by the concatenations and unions around them, unions are flattened and free
+ * of duplicates, and alternatives with a common first or last factor are factored, e.g. ab|ac to a(b|c).
+ * The rewriting works on hash-consed nodes, so equal subexpressions are recognized by identity.
+ */
+final class RegexSimplifier {
+
+    private static final Node[] NONE = new Node[0];
+
+    private static final class Node {
+        final int type;
+        // the letter of an ID
+        final char c;
+        // the factors of a CONCATENATION and the alternatives of an OR in order, the body of a STAR
+        final Node[] children;
+        final boolean nullable;
+
+        Node(int type, char c, Node[] children, boolean nullable) {
+            this.type = type;
+            this.c = c;
+            this.children = children;
+            this.nullable = nullable;
+        }
+    }
+
+    // the nodes by type, letter and the identities of their children
+    private final HashMap<List<Object>, Node> nodes = new HashMap<>();
+    private final Node empty;
+    private final Node epsilon;
+
+    private RegexSimplifier() {
+        empty = intern(RegexpParser.EMPTYSET, '\0', NONE);
+        epsilon = intern(RegexpParser.EPSILON, '\0', NONE);
+    }
+
+    static CommonTree simplify(CommonTree ast) {
+        RegexSimplifier simplifier = new RegexSimplifier();
+        CommonTree result = simplifier.tree(simplifier.node(ast));
+        Stats.rewrite(ast::toStringTree, () -> thompsonStates(ast), () -> thompsonStates(result));
+        return result;
+    }
+
+    // the number of states Automaton.epsilonNFAFromRegex builds for the AST
+    static int thompsonStates(CommonTree ast) {
+        int states;
+        switch(ast.getToken().getType()) {
+            case RegexpParser.ID:
+                return 2;
+            case RegexpParser.EPSILON:
+            case RegexpParser.EMPTYSET:
+                return 1;
+            case RegexpParser.STAR:
+                return thompsonStates((CommonTree) ast.getChild(0)) + 3;
+            case RegexpParser.OR:
+                // a new initial state for every union
+                states = ast.getChildCount() - 1;
+                for(int i = 0; i < ast.getChildCount(); i++) {
+                    states += thompsonStates((CommonTree) ast.getChild(i));
+                }
+                return states;
+            case RegexpParser.CONCATENATION:
+                states = 0;
+                for(int i = 0; i < ast.getChildCount(); i++) {
+                    states += thompsonStates((CommonTree) ast.getChild(i));
+                }
+                return states;
+            default:
+                throw new AssertionError("Unknown Token in Regex!");
+        }
+    }
+
+    private Node node(CommonTree ast) {
+        switch(ast.getToken().getType()) {
+            case RegexpParser.ID:
+                return intern(RegexpParser.ID, ast.getText().charAt(0), NONE);
+            case RegexpParser.EPSILON:
+                return epsilon;
+            case RegexpParser.EMPTYSET:
+                return empty;
+            case RegexpParser.STAR:
+                return star(node((CommonTree) ast.getChild(0)));
+            case RegexpParser.OR:
+            case RegexpParser.CONCATENATION:
+                ArrayList<Node> children = new ArrayList<>(ast.getChildCount());
+                for(int i = 0; i < ast.getChildCount(); i++) {
+                    children.add(node((CommonTree) ast.getChild(i)));
+                }
+                return ast.getToken().getType() == RegexpParser.OR ? or(children) : concat(children);
+            default:
+                throw new AssertionError("Unknown Token in Regex!");
+        }
+    }
+
+    private CommonTree tree(Node node) {
+        String text;
+        switch(node.type) {
+            case RegexpParser.ID:
+                text = String.valueOf(node.c);
+                break;
+            case RegexpParser.EPSILON:
+                text = "@";
+                break;
+            case RegexpParser.EMPTYSET:
+                text = "/";
+                break;
+            case RegexpParser.STAR:
+                text = "*";
+                break;
+            case RegexpParser.OR:
+                text = "|";
+                break;
+            default:
+                text = "CONCATENATION";
+        }
+        CommonTree tree = new CommonTree(new CommonToken(node.type, text));
+        for(Node child : node.children) {
+            tree.addChild(tree(child));
+        }
+        return tree;
+    }
+
+    private Node intern(int type, char c, Node[] children) {
+        List<Object> key = new ArrayList<>(children.length + 2);
+        key.add(type);
+        key.add(c);
+        // nodes are compared by identity, the children are interned already
+        key.addAll(Arrays.asList(children));
+        Node node = nodes.get(key);
+        if(node != null) {
+            return node;
+        }
+        boolean nullable;
+        switch(type) {
+            case RegexpParser.EPSILON:
+            case RegexpParser.STAR:
+                nullable = true;
+                break;
+            case RegexpParser.CONCATENATION:
+                nullable = Arrays.stream(children).allMatch(child -> child.nullable);
+                break;
+            case RegexpParser.OR:
+                nullable = Arrays.stream(children).anyMatch(child -> child.nullable);
+                break;
+            default:
+                nullable = false;
+        }
+        node = new Node(type, c, children, nullable);
+        nodes.put(key, node);
+        return node;
+    }
+
+    private Node star(Node body) {
+        if(body == empty || body == epsilon) {
+            return epsilon;
+        }
+        if(body.type == RegexpParser.STAR) {
+            return body;
+        }
+        // (x*|y|@)* and, as both parts may be skipped, (x*y*)* are (x|y)*
+        if(body.type == RegexpParser.OR || body.type == RegexpParser.CONCATENATION && body.nullable) {
+            ArrayList<Node> alternatives = new ArrayList<>();
+            boolean changed = body.type == RegexpParser.CONCATENATION;
+            for(Node child : body.children) {
+                if(child == epsilon || child.type == RegexpParser.STAR) {
+                    changed = true;
+                }
+                if(child != epsilon) {
+                    alternatives.add(child.type == RegexpParser.STAR ? child.children[0] : child);
+                }
+            }
+            if(changed) {
+                return star(or(alternatives));
+            }
+        }
+        return intern(RegexpParser.STAR, '\0', new Node[]{body});
+    }
+
+    private Node concat(List<Node> factors) {
+        ArrayList<Node> flat = new ArrayList<>();
+        for(Node factor : factors) {
+            if(factor == empty) {
+                return empty;
+            }
+            for(Node part : factor.type == RegexpParser.CONCATENATION ? Arrays.asList(factor.children) : List.of(factor)) {
+                // x*x* is x*
+                if(part == epsilon || part.type == RegexpParser.STAR && !flat.isEmpty() && flat.get(flat.size() - 1) == part) {
+                    continue;
+                }
+                flat.add(part);
+            }
+        }
+        if(flat.isEmpty()) {
+            return epsilon;
+        }
+        if(flat.size() == 1) {
+            return flat.get(0);
+        }
+        return intern(RegexpParser.CONCATENATION, '\0', flat.toArray(NONE));
+    }
+
+    private Node or(List<Node> alternatives) {
+        LinkedHashSet<Node> flat = new LinkedHashSet<>();
+        for(Node alternative : alternatives) {
+            if(alternative.type == RegexpParser.OR) {
+                flat.addAll(Arrays.asList(alternative.children));
+            } else if(alternative != empty) {
+                flat.add(alternative);
+            }
+        }
+        // another nullable alternative already accepts the empty word
+        if(flat.contains(epsilon) && flat.stream().anyMatch(alternative -> alternative != epsilon && alternative.nullable)) {
+            flat.remove(epsilon);
+        }
+        ArrayList<Node> factored = factor(new ArrayList<>(flat), true);
+        factored = factor(factored, false);
+        if(factored.isEmpty()) {
+            return empty;
+        }
+        if(factored.size() == 1) {
+            return factored.get(0);
+        }
+        return intern(RegexpParser.OR, '\0', factored.toArray(NONE));
+    }
+
+    // ab|ac|d to a(b|c)|d, or ba|ca|d to (b|c)a|d if first is not set
+    private ArrayList<Node> factor(ArrayList<Node> alternatives, boolean first) {
+        LinkedHashMap<Node, ArrayList<Node>> groups = new LinkedHashMap<>();
+        for(Node alternative : alternatives) {
+            groups.computeIfAbsent(end(alternative, first), key -> new ArrayList<>()).add(alternative);
+        }
+        if(groups.size() == alternatives.size()) {
+            return alternatives;
+        }
+        ArrayList<Node> result = new ArrayList<>();
+        for(Map.Entry<Node, ArrayList<Node>> group : groups.entrySet()) {
+            if(group.getValue().size() == 1) {
+                result.add(group.getValue().get(0));
+                continue;
+            }
+            ArrayList<Node> rests = new ArrayList<>();
+            for(Node alternative : group.getValue()) {
+                rests.add(rest(alternative, first));
+            }
+            Node common = group.getKey();
+            result.add(first ? concat(List.of(common, or(rests))) : concat(List.of(or(rests), common)));
+        }
+        return result;
+    }
+
+    // the first or last factor of a concatenation, any other node is its own only factor
+    private static Node end(Node node, boolean first) {
+        if(node.type != RegexpParser.CONCATENATION) {
+            return node;
+        }
+        return first ? node.children[0] : node.children[node.children.length - 1];
+    }
+
+    // the node without its first or last factor
+    private Node rest(Node node, boolean first) {
+        if(node.type != RegexpParser.CONCATENATION) {
+            return epsilon;
+        }
+        int length = node.children.length;
+        return concat(Arrays.asList(node.children).subList(first ? 1 : 0, first ? length : length - 1));
+    }
+}
@@ -0,0 +1,46 @@
+package de.tum.in.afl;
+
+/**
+ * The characters from start (inclusive) to end (exclusive) of a text in reverse order, without copying them,
+ * e.g. to run an automaton of the reversed language backwards from the end of a match.
+ */
+class ReversedText implements CharSequence {
+    private final CharSequence text;
+    private final int start;
+    private final int end;
+
+    ReversedText(CharSequence text, int start, int end) {
+        if(start < 0 || start > end) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + ") is not within the text");
+        }
+        this.text = text;
+        this.start = start;
+        this.end = end;
+    }
+
+    @Override
+    public int length() {
+        return end - start;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= end - start) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + (end - start));
+        }
+        return text.charAt(end - 1 - index);
+    }
+
+    @Override
+    public CharSequence subSequence(int from, int to) {
+        if(from < 0 || to > end - start || from > to) {
+            throw new IndexOutOfBoundsException("range [" + from + ", " + to + "), length " + (end - start));
+        }
+        return new ReversedText(text, end - to, end - from);
+    }
+
+    @Override
+    public String toString() {
+        return new StringBuilder(this).toString();
+    }
+}
@@ -0,0 +1,27 @@
+package de.tum.in.afl;
+
+/**
+ * Thrown when a construction would outgrow its budget, e.g. a subset construction that keeps
+ * discovering new states. Carries the size reached when it gave up.
+ */
+public class StateExplosionException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int states;
+    private final long bytes;
+
+    public StateExplosionException(String message, int states, long bytes) {
+        super(message);
+        this.states = states;
+        this.bytes = bytes;
+    }
+
+    public int states() {
+        return states;
+    }
+
+    // estimated heap use
+    public long bytes() {
+        return bytes;
+    }
+}
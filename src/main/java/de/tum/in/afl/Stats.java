@@ -0,0 +1,305 @@
+package de.tum.in.afl;
+
+import jdk.jfr.*;
+
+import java.util.*;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of building automata and running them: the size of the result and the wall time of every construction
+ * phase, and for every run the characters read, the peak number of active states and the transitions examined.
+ * They are committed as JFR events (category "Automata"), so a flight recording shows where a slow job spent its
+ * time, and they are collected into a Stats object for the current thread between record() and stop().
+ * With -Dafl.verbose=true Main prints the stats of its task to stderr.
+ */
+public class Stats {
+
+    @Name("de.tum.in.afl.Phase")
+    @Label("Construction Phase")
+    @Category("Automata")
+    @Description("One step of building an automaton and the size of its result")
+    static class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+        @Label("States")
+        int states;
+        @Label("Transitions")
+        int transitions;
+    }
+
+    @Name("de.tum.in.afl.Run")
+    @Label("Run")
+    @Category("Automata")
+    @Description("One pass of an engine over a text")
+    static class RunEvent extends Event {
+        @Label("Engine")
+        String engine;
+        @Label("Characters")
+        int characters;
+        @Label("Peak Active States")
+        int peakActiveStates;
+        @Label("Transitions Examined")
+        long transitionsExamined;
+        @Label("Restarts")
+        @Description("Searches started again behind a match")
+        int restarts;
+    }
+
+    @Name("de.tum.in.afl.Rewrite")
+    @Label("Regex Rewrite")
+    @Category("Automata")
+    @Description("Simplification of a regex before Thompson's construction")
+    static class RewriteEvent extends Event {
+        @Label("Pattern")
+        String pattern;
+        @Label("States Before")
+        int statesBefore;
+        @Label("States After")
+        int statesAfter;
+    }
+
+    public static class Phase {
+        public final String name;
+        public final long nanos;
+        public final int states;
+        public final int transitions;
+
+        Phase(String name, long nanos, int states, int transitions) {
+            this.name = name;
+            this.nanos = nanos;
+            this.states = states;
+            this.transitions = transitions;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s %10.3f ms %8d states %10d transitions", name, nanos / 1e6, states, transitions);
+        }
+    }
+
+    public static class Run {
+        public final String engine;
+        public final long nanos;
+        public final int characters;
+        public final int peakActiveStates;
+        public final long transitionsExamined;
+        public final int restarts;
+
+        Run(String engine, long nanos, int characters, int peakActiveStates, long transitionsExamined, int restarts) {
+            this.engine = engine;
+            this.nanos = nanos;
+            this.characters = characters;
+            this.peakActiveStates = peakActiveStates;
+            this.transitionsExamined = transitionsExamined;
+            this.restarts = restarts;
+        }
+
+        public double transitionsPerCharacter() {
+            return characters == 0 ? 0 : (double) transitionsExamined / characters;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s %10.3f ms %10d chars, peak %d active, %.2f transitions/char, %d restarts",
+                    engine, nanos / 1e6, characters, peakActiveStates, transitionsPerCharacter(), restarts);
+        }
+    }
+
+    public static class Rewrite {
+        public final String pattern;
+        public final int statesBefore;
+        public final int statesAfter;
+
+        Rewrite(String pattern, int statesBefore, int statesAfter) {
+            this.pattern = pattern;
+            this.statesBefore = statesBefore;
+            this.statesAfter = statesAfter;
+        }
+
+        public int statesSaved() {
+            return statesBefore - statesAfter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-20s %8d -> %d Thompson states, %d saved", "simplify", statesBefore, statesAfter,
+                    statesSaved()) + "  " + pattern;
+        }
+    }
+
+    // loading the event classes initializes JFR, which takes a few hundred milliseconds, so they are only used once
+    // a recording runs, started with -XX:StartFlightRecording or jcmd
+    private static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    // a construction phase in progress
+    static final class PhaseTimer {
+        private final String name;
+        private final long start = System.nanoTime();
+        private final PhaseEvent event;
+
+        private PhaseTimer(String name) {
+            this.name = name;
+            if(recording()) {
+                event = new PhaseEvent();
+                event.phase = name;
+                event.begin();
+            } else {
+                event = null;
+            }
+        }
+
+        // records the phase with the size of the automaton it produced and returns that automaton
+        Automaton end(Automaton result) {
+            long nanos = System.nanoTime() - start;
+            boolean commit = event != null && event.shouldCommit();
+            Stats stats = CURRENT.get();
+            // counting needs the table, which is only built if someone listens
+            if(stats == null && !commit) {
+                return result;
+            }
+            TransitionTable table = result.table();
+            if(commit) {
+                event.end();
+                event.states = table.size();
+                event.transitions = table.edgeCount();
+                event.commit();
+            }
+            if(stats != null) {
+                stats.phases.add(new Phase(name, nanos, table.size(), table.edgeCount()));
+            }
+            return result;
+        }
+    }
+
+    // a run in progress, the engine counts itself and hands the numbers to end()
+    static final class RunTimer {
+        private final String engine;
+        private final long start = System.nanoTime();
+        private final RunEvent event;
+
+        private RunTimer(String engine) {
+            this.engine = engine;
+            if(recording()) {
+                event = new RunEvent();
+                event.engine = engine;
+                event.begin();
+            } else {
+                event = null;
+            }
+        }
+
+        // records the run and returns result, so engines can end a run in their return statements
+        int end(int result, int characters, int peakActiveStates, long transitionsExamined, int restarts) {
+            record(characters, peakActiveStates, transitionsExamined, restarts);
+            return result;
+        }
+
+        <T> T end(T result, int characters, int peakActiveStates, long transitionsExamined, int restarts) {
+            record(characters, peakActiveStates, transitionsExamined, restarts);
+            return result;
+        }
+
+        private void record(int characters, int peakActiveStates, long transitionsExamined, int restarts) {
+            long nanos = System.nanoTime() - start;
+            if(event != null && event.shouldCommit()) {
+                event.end();
+                event.characters = characters;
+                event.peakActiveStates = peakActiveStates;
+                event.transitionsExamined = transitionsExamined;
+                event.restarts = restarts;
+                event.commit();
+            }
+            Stats stats = CURRENT.get();
+            if(stats != null) {
+                stats.runs.add(new Run(engine, nanos, characters, peakActiveStates, transitionsExamined, restarts));
+            }
+        }
+    }
+
+    private static final ThreadLocal<Stats> CURRENT = new ThreadLocal<>();
+
+    private final ArrayList<Phase> phases = new ArrayList<>();
+    private final ArrayList<Run> runs = new ArrayList<>();
+    private final ArrayList<Rewrite> rewrites = new ArrayList<>();
+
+    private Stats() {
+    }
+
+    // collects the metrics of everything the current thread builds and runs until stop() is called
+    public static Stats record() {
+        Stats stats = new Stats();
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    public Stats stop() {
+        if(CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        return this;
+    }
+
+    static PhaseTimer phase(String name) {
+        return new PhaseTimer(name);
+    }
+
+    static RunTimer run(String engine) {
+        return new RunTimer(engine);
+    }
+
+    // the pattern is only printed and the states are only counted if someone listens
+    static void rewrite(Supplier<String> pattern, IntSupplier statesBefore, IntSupplier statesAfter) {
+        Stats stats = CURRENT.get();
+        boolean commit = false;
+        RewriteEvent event = null;
+        if(recording()) {
+            event = new RewriteEvent();
+            commit = event.shouldCommit();
+        }
+        if(stats == null && !commit) {
+            return;
+        }
+        String text = pattern.get();
+        int before = statesBefore.getAsInt();
+        int after = statesAfter.getAsInt();
+        if(commit) {
+            event.pattern = text;
+            event.statesBefore = before;
+            event.statesAfter = after;
+            event.commit();
+        }
+        if(stats != null) {
+            stats.rewrites.add(new Rewrite(text, before, after));
+        }
+    }
+
+    public List<Phase> phases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    public List<Run> runs() {
+        return Collections.unmodifiableList(runs);
+    }
+
+    public List<Rewrite> rewrites() {
+        return Collections.unmodifiableList(rewrites);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for(Rewrite rewrite : rewrites) {
+            result.append(rewrite).append('\n');
+        }
+        for(Phase phase : phases) {
+            result.append(phase).append('\n');
+        }
+        for(Run run : runs) {
+            result.append(run).append('\n');
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * A set of NFA states as a sorted array of their dense ids, used as a hash key during subset construction.
+ * The hash is computed once, so interning a subset costs a single pass over its ids.
+ */
+final class Subset {
+    final int[] states;
+    private final int hash;
+
+    Subset(int[] states) {
+        this.states = states;
+        this.hash = Arrays.hashCode(states);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Subset && hash == ((Subset) other).hash && Arrays.equals(states, ((Subset) other).states);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,207 @@
+package de.tum.in.afl;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Subset construction for epsilon-free NFAs, one breadth-first level at a time. The subsets of a level
+ * are expanded in parallel, each task with its own scratch arrays, and new subsets are interned in a
+ * concurrent map, so every subset becomes exactly one DFA state whichever task finds it first.
+ * The transitions are collected per subset and added to the DFA between the levels, so apart from the
+ * identity of its states the result does not depend on the number of threads.
+ */
+class SubsetConstruction {
+
+    // subsets one task expands, smaller levels are expanded on the calling thread
+    private static final int CHUNK = 64;
+
+    private final TransitionTable table;
+    private final int maxStates;
+    private final long maxTransitions;
+    private final long maxBytes;
+    private final ConcurrentHashMap<Subset, Automaton.State> stateMap = new ConcurrentHashMap<>();
+    private final AtomicInteger states = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    // edges of the transition table, one per subset and class with a successor
+    private final AtomicLong transitions = new AtomicLong();
+
+    // what expanding one subset produced
+    private static final class Expansion {
+        boolean accepting;
+        final ArrayList<Automaton.Transition> transitions = new ArrayList<>();
+        final ArrayList<Subset> discovered = new ArrayList<>();
+    }
+
+    private SubsetConstruction(TransitionTable table, int maxStates, long maxTransitions, long maxBytes) {
+        this.table = table;
+        this.maxStates = maxStates;
+        this.maxTransitions = maxTransitions;
+        this.maxBytes = maxBytes;
+    }
+
+    // gives up with a StateExplosionException as soon as the DFA outgrows maxStates, maxTransitions or (roughly) maxBytes
+    static Automaton determinize(Automaton nfa, int maxStates, long maxTransitions, long maxBytes, ForkJoinPool pool) {
+        SubsetConstruction construction = new SubsetConstruction(nfa.table(), maxStates, maxTransitions, maxBytes);
+        return construction.run(nfa.initialState, pool);
+    }
+
+    private Automaton run(Automaton.State initialState, ForkJoinPool pool) {
+        Automaton dfa = new Automaton();
+        dfa.initialState = initialState;
+        Subset initialSet = new Subset(new int[]{table.initial});
+        stateMap.put(initialSet, initialState);
+        states.set(1);
+
+        List<Subset> level = List.of(initialSet);
+        while(!level.isEmpty()) {
+            Expansion[] expansions = new Expansion[level.size()];
+            if(level.size() <= CHUNK || pool.getParallelism() == 1) {
+                expand(level, 0, level.size(), expansions);
+            } else {
+                pool.invoke(new ExpandTask(level, 0, level.size(), expansions));
+            }
+            ArrayList<Subset> next = new ArrayList<>();
+            for(int i = 0; i < expansions.length; i++) {
+                Automaton.State from = stateMap.get(level.get(i));
+                dfa.states.add(from);
+                if(expansions[i].accepting) {
+                    dfa.finalStates.add(from);
+                }
+                dfa.transitions.addAll(expansions[i].transitions);
+                next.addAll(expansions[i].discovered);
+            }
+            level = next;
+        }
+        return dfa;
+    }
+
+    private final class ExpandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Subset> level;
+        private final int from;
+        private final int to;
+        private final Expansion[] expansions;
+
+        ExpandTask(List<Subset> level, int from, int to, Expansion[] expansions) {
+            this.level = level;
+            this.from = from;
+            this.to = to;
+            this.expansions = expansions;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= CHUNK) {
+                expand(level, from, to, expansions);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ExpandTask(level, from, mid, expansions), new ExpandTask(level, mid, to, expansions));
+        }
+    }
+
+    private void expand(List<Subset> level, int from, int to, Expansion[] expansions) {
+        // the letter edges leaving a subset, as (class << 32 | target) so that sorting groups them by class
+        long[] edges = new long[16];
+        int[] targets = new int[16];
+        for(int i = from; i < to; i++) {
+            Subset q = level.get(i);
+            Automaton.State source = stateMap.get(q);
+            Expansion expansion = new Expansion();
+            expansions[i] = expansion;
+            for(int s : q.states) {
+                if(table.isFinal[s]) {
+                    expansion.accepting = true;
+                    break;
+                }
+            }
+
+            int count = 0;
+            for(int s : q.states) {
+                for(int e = table.letterStart[s]; e < table.offsets[s + 1]; e++) {
+                    if(count == edges.length) {
+                        edges = Arrays.copyOf(edges, count * 2);
+                        targets = new int[count * 2];
+                    }
+                    edges[count++] = ((long) table.symbols[e] << 32) | table.targets[e];
+                }
+            }
+            Arrays.sort(edges, 0, count);
+            // neighbouring classes with the same successor become one range
+            Automaton.State runTo = null;
+            int runFirst = 0;
+            int runLast = 0;
+            int classes = 0;
+            for(int j = 0; j < count; ) {
+                char c = (char) (edges[j] >>> 32);
+                classes++;
+                int size = 0;
+                for(; j < count && (char) (edges[j] >>> 32) == c; j++) {
+                    if(size == 0 || targets[size - 1] != (int) edges[j]) {
+                        targets[size++] = (int) edges[j];
+                    }
+                }
+                Automaton.State successor = intern(new Subset(Arrays.copyOf(targets, size)), expansion);
+                if(successor == runTo && c == runLast + 1) {
+                    runLast = c;
+                    continue;
+                }
+                if(runTo != null) {
+                    expansion.transitions.add(new Automaton.Transition(source, table.classes.symbol(runFirst, runLast), runTo));
+                }
+                runTo = successor;
+                runFirst = c;
+                runLast = c;
+                // transition and tree node
+                bytes.addAndGet(24 + 40);
+            }
+            if(runTo != null) {
+                expansion.transitions.add(new Automaton.Transition(source, table.classes.symbol(runFirst, runLast), runTo));
+            }
+            long reached = transitions.addAndGet(classes);
+            if(reached > maxTransitions) {
+                throw new StateExplosionException("Subset construction exceeded its budget of " + maxTransitions
+                        + " transitions", states.get(), bytes.get());
+            }
+        }
+    }
+
+    // the DFA state of a subset, discovering it if no task has before
+    private Automaton.State intern(Subset key, Expansion expansion) {
+        Automaton.State state = stateMap.get(key);
+        if(state != null) {
+            return state;
+        }
+        // the label only needs the NFA states, not the table or this construction
+        Automaton.State[] nfaStates = table.states;
+        int[] subset = key.states;
+        state = new Automaton.State(() -> label(nfaStates, subset));
+        Automaton.State previous = stateMap.putIfAbsent(key, state);
+        if(previous != null) {
+            return previous;
+        }
+        expansion.discovered.add(key);
+        int reached = states.incrementAndGet();
+        // subset array, key, map entry and state
+        long used = bytes.addAndGet(16 + 4L * key.states.length + 24 + 48 + 40);
+        if(reached > maxStates || used > maxBytes) {
+            throw new StateExplosionException("Subset construction exceeded its budget of " + maxStates
+                    + " states or " + maxBytes + " bytes", reached, used);
+        }
+        return state;
+    }
+
+    // the labels of the NFA states sorted by length first, numbered states in numeric order, so the label does not
+    // depend on the order of the states in the table
+    private static String label(Automaton.State[] nfaStates, int[] subset) {
+        return Arrays.stream(subset).mapToObj(s -> nfaStates[s].label())
+                .sorted(Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder()))
+                .collect(Collectors.joining(","));
+    }
+}
@@ -0,0 +1,175 @@
+package de.tum.in.afl;
+
+import java.util.*;
+
+/**
+ * Frozen, index based view of an {@link Automaton}.
+ * States are numbered densely from 0, the outgoing edges of state s are stored at
+ * [offsets[s], offsets[s+1]) with the epsilon edges first and the letter edges sorted by symbol.
+ * Letter edges are labelled with {@link CharClasses character classes}, a transition on a range of
+ * characters becomes one edge per class in the range.
+ */
+public class TransitionTable {
+
+    final Automaton.State[] states;
+    // built on first use for tables that were loaded from a file
+    private HashMap<Automaton.State, Integer> ids;
+    final int initial;
+    final boolean[] isFinal;
+
+    final CharClasses classes;
+    final int[] offsets;
+    final int[] letterStart;
+    final char[] symbols;
+    final int[] targets;
+
+    TransitionTable(Automaton automaton) {
+        ids = new HashMap<>();
+        ArrayList<Automaton.State> order = new ArrayList<>();
+        for (var s : automaton.states) {
+            addState(s, order);
+        }
+        addState(automaton.initialState, order);
+        for (var t : automaton.transitions) {
+            addState(t.from, order);
+            addState(t.to, order);
+        }
+        states = order.toArray(new Automaton.State[0]);
+        initial = ids.get(automaton.initialState);
+
+        int n = states.length;
+        isFinal = new boolean[n];
+        for (var s : automaton.finalStates) {
+            Integer id = ids.get(s);
+            if (id != null) {
+                isFinal[id] = true;
+            }
+        }
+
+        // counting sort of the transitions by source state, epsilons in front
+        classes = CharClasses.of(automaton.transitions);
+        int[] epsilonCount = new int[n];
+        offsets = new int[n + 1];
+        for (var t : automaton.transitions) {
+            int from = ids.get(t.from);
+            if (t.symbol instanceof Automaton.Symbol.Range) {
+                Automaton.Symbol.Range range = (Automaton.Symbol.Range) t.symbol;
+                offsets[from + 1] += classes.of(range.last) - classes.of(range.first) + 1;
+            } else {
+                offsets[from + 1]++;
+                epsilonCount[from]++;
+            }
+        }
+        for (int s = 0; s < n; s++) {
+            offsets[s + 1] += offsets[s];
+        }
+        letterStart = new int[n];
+        int[] nextEpsilon = new int[n];
+        int[] nextLetter = new int[n];
+        for (int s = 0; s < n; s++) {
+            letterStart[s] = offsets[s] + epsilonCount[s];
+            nextEpsilon[s] = offsets[s];
+            nextLetter[s] = letterStart[s];
+        }
+        symbols = new char[offsets[n]];
+        targets = new int[offsets[n]];
+        for (var t : automaton.transitions) {
+            int from = ids.get(t.from);
+            int to = ids.get(t.to);
+            if (t.symbol instanceof Automaton.Symbol.Range) {
+                Automaton.Symbol.Range range = (Automaton.Symbol.Range) t.symbol;
+                for (int k = classes.of(range.first); k <= classes.of(range.last); k++) {
+                    int e = nextLetter[from]++;
+                    symbols[e] = (char) k;
+                    targets[e] = to;
+                }
+            } else {
+                targets[nextEpsilon[from]++] = to;
+            }
+        }
+        for (int s = 0; s < n; s++) {
+            sortLetters(letterStart[s], offsets[s + 1]);
+        }
+    }
+
+    // a table read from a file or assembled from other tables, its states are created here and labelled with their ids
+    TransitionTable(int initial, boolean[] isFinal, CharClasses classes, int[] offsets, int[] letterStart, char[] symbols,
+                    int[] targets) {
+        int n = isFinal.length;
+        states = new Automaton.State[n];
+        for (int s = 0; s < n; s++) {
+            states[s] = new Automaton.State(String.valueOf(s));
+        }
+        this.initial = initial;
+        this.isFinal = isFinal;
+        this.classes = classes;
+        this.offsets = offsets;
+        this.letterStart = letterStart;
+        this.symbols = symbols;
+        this.targets = targets;
+    }
+
+    private void addState(Automaton.State s, ArrayList<Automaton.State> order) {
+        if (!ids.containsKey(s)) {
+            ids.put(s, order.size());
+            order.add(s);
+        }
+    }
+
+    // insertion sort, the out-degree of a state is small (at most the classes times the layers)
+    private void sortLetters(int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            char c = symbols[i];
+            int target = targets[i];
+            int j = i - 1;
+            while (j >= from && symbols[j] > c) {
+                symbols[j + 1] = symbols[j];
+                targets[j + 1] = targets[j];
+                j--;
+            }
+            symbols[j + 1] = c;
+            targets[j + 1] = target;
+        }
+    }
+
+    public int size() {
+        return states.length;
+    }
+
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    synchronized int id(Automaton.State s) {
+        if (ids == null) {
+            ids = new HashMap<>();
+            for (int i = 0; i < states.length; i++) {
+                ids.put(states[i], i);
+            }
+        }
+        return ids.get(s);
+    }
+
+    boolean hasEpsilons(int s) {
+        return letterStart[s] != offsets[s];
+    }
+
+    Automaton.Symbol symbol(int s, int e) {
+        if (e < letterStart[s]) {
+            return Automaton.Symbol.EPSILON;
+        }
+        return classes.symbol(symbols[e]);
+    }
+
+    // index of the first edge of s labelled with the class c, or end of s' edges if there is none
+    int firstEdge(int s, char c) {
+        int lo = letterStart[s];
+        int hi = offsets[s + 1];
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (symbols[mid] < c) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,56 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+import org.junit.jupiter.api.Test;
+
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AutomatonExportTest {
+
+    private static String export(Automaton automaton, AutomatonExport.Format format) throws Exception {
+        StringWriter out = new StringWriter();
+        new AutomatonExport(automaton).collapseParallelEdges(true).write(format, out);
+        return out.toString();
+    }
+
+    // the states of every build are labelled with new numbers
+    private static String withoutStateLabels(String export) {
+        return export.replaceAll(", label=\"[^\"]*\"] q", "] q").replaceAll("<data key=\"label\">[^<]*</data>", "");
+    }
+
+    private static void assertSameGraph(Automaton expected, Automaton actual, String regex) throws Exception {
+        for(AutomatonExport.Format format : AutomatonExport.Format.values()) {
+            assertEquals(withoutStateLabels(export(expected, format)), withoutStateLabels(export(actual, format)), regex);
+        }
+    }
+
+    // the same regex built twice gets other identity hashes and so another order of the states in the table
+    @Test
+    void exportsOfTheSameRegexAreEqual() throws Exception {
+        Random random = new Random(24);
+        for(int i = 0; i < 300; i++) {
+            String regex = DerivativesTest.randomRegex(random, 0);
+            CommonTree ast = DerivativesTest.parse(regex);
+            assertSameGraph(Automaton.fromRegex(ast), Automaton.fromRegex(ast), regex);
+            assertSameGraph(Main.editAutomaton(ast, 1), Main.editAutomaton(ast, 1), regex);
+        }
+    }
+
+    @Test
+    void statesAreNumberedDenselyFromTheInitialState() throws Exception {
+        Automaton automaton = Main.editAutomaton(DerivativesTest.parse("a(b|c)*d"), 1);
+        String dot = export(automaton, AutomatonExport.Format.DOT);
+        Matcher nodes = Pattern.compile("\\] q(\\d+);").matcher(dot);
+        int expected = 0;
+        while(nodes.find()) {
+            assertEquals(expected++, Integer.parseInt(nodes.group(1)));
+        }
+        assertEquals(automaton.table().size(), expected);
+        assertTrue(dot.contains("startstatename -> q0;"));
+    }
+}
@@ -0,0 +1,71 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.ANTLRStringStream;
+import org.antlr.runtime.tree.CommonTree;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DerivativesTest {
+
+    // regexes over a, b and c with the empty word, stars, unions and concatenations
+    static String randomRegex(Random random, int depth) {
+        switch(depth > 2 ? random.nextInt(3) : random.nextInt(7)) {
+            case 0:
+            case 2:
+                return String.valueOf("abc".charAt(random.nextInt(3)));
+            case 1:
+                return "@";
+            case 4:
+                return "(" + randomRegex(random, depth + 1) + "|" + randomRegex(random, depth + 1) + ")";
+            case 5:
+                return randomRegex(random, depth + 1) + randomRegex(random, depth + 1);
+            default:
+                return "(" + randomRegex(random, depth + 1) + ")*";
+        }
+    }
+
+    // words over the letters of the regexes, a letter they do not use and a non-letter
+    static String randomWord(Random random, int maxLength) {
+        StringBuilder word = new StringBuilder();
+        for(int i = random.nextInt(maxLength + 1); i > 0; i--) {
+            word.append("abcd ".charAt(random.nextInt(5)));
+        }
+        return word.toString();
+    }
+
+    static CommonTree parse(String regex) throws Exception {
+        return Main.regexpToTree(new ANTLRStringStream(regex));
+    }
+
+    @Test
+    void derivativesAcceptTheSameWordsAsThompson() throws Exception {
+        Random random = new Random(11);
+        for(int i = 0; i < 3000; i++) {
+            String regex = randomRegex(random, 0);
+            CommonTree ast = parse(regex);
+            Automaton thompson = Automaton.fromRegex(ast);
+            Automaton derivatives = Automaton.fromRegexByDerivatives(ast);
+            Automaton prefixed = Automaton.fromRegexWithPrefix(ast);
+            Automaton prefixedDerivatives = Automaton.fromRegexWithPrefixByDerivatives(ast);
+            assertEquals(thompson.toDFA().minimize().table().size(), derivatives.minimize().table().size(), regex);
+            for(int j = 0; j < 40; j++) {
+                String word = randomWord(random, 12);
+                assertEquals(thompson.run(word), derivatives.run(word), regex + " on '" + word + "'");
+                assertEquals(prefixed.run(word), prefixedDerivatives.run(word), regex + " on '" + word + "'");
+                assertEquals(prefixed.run(word, true), prefixedDerivatives.run(word, true), regex + " on '" + word + "'");
+            }
+        }
+    }
+
+    @Test
+    void largeDerivativeDFAsFallBackToThompson() throws Exception {
+        // the DFA has to remember the last 23 letters
+        CommonTree ast = parse("(a|b)*a(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)"
+                + "(a|b)(a|b)(a|b)(a|b)(a|b)(a|b)");
+        assertNull(PatternCache.byDerivatives(ast));
+        assertNotNull(PatternCache.byDerivatives(parse("a(b|c)*d")));
+    }
+}
@@ -0,0 +1,131 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EditDistanceMatcherTest {
+
+    // the words within edit distance k of the pattern, built by the layered construction
+    static Automaton editAutomaton(CommonTree ast, int editDistance) {
+        Automaton edit = Automaton.fromRegex(ast);
+        edit.toEditAutomaton(editDistance);
+        return edit.removeEpsilons();
+    }
+
+    static boolean accepts(Automaton edit, CharSequence word) {
+        return edit.run(word, false) != -1;
+    }
+
+    // the first shortest match of the search that restarts behind the end of every match, by trying all substrings
+    static Match bruteForceShortestMatch(Automaton edit, String text) {
+        Match shortest = null;
+        int offset = 0;
+        while(true) {
+            Match next = null;
+            for(int end = offset + 1; end <= text.length() && next == null; end++) {
+                for(int start = end - 1; start >= offset; start--) {
+                    if(accepts(edit, text.substring(start, end))) {
+                        next = new Match(start, end);
+                        break;
+                    }
+                }
+            }
+            if(next == null) {
+                return shortest;
+            }
+            if(shortest == null || next.length() < shortest.length()) {
+                shortest = next;
+            }
+            offset = next.end;
+        }
+    }
+
+    // most random regexes have a word of at most two letters, which makes the empty word a match with two edits,
+    // these have none shorter than three
+    static String randomLongRegex(Random random) {
+        StringBuilder regex = new StringBuilder();
+        for(int i = 0; i < 3; i++) {
+            regex.append("(").append(DerivativesTest.randomRegex(random, 1)).append(")")
+                    .append("abc".charAt(random.nextInt(3)));
+        }
+        return regex.toString();
+    }
+
+    private static String describe(Match match) {
+        return match == null ? "null" : match.toString();
+    }
+
+    @Test
+    void searchRunsLikeTheEditAutomaton() throws Exception {
+        Random random = new Random(5);
+        for(int i = 0; i < 300; i++) {
+            String regex = i % 2 == 0 ? DerivativesTest.randomRegex(random, 0) : randomLongRegex(random);
+            CommonTree ast = DerivativesTest.parse(regex);
+            for(int k = 0; k <= 2; k++) {
+                Automaton edit = editAutomaton(ast, k);
+                Automaton prefixed = Automaton.universal();
+                prefixed.concat(editAutomaton(ast, k));
+                prefixed = prefixed.removeEpsilons();
+                EditDistanceMatcher search = EditDistanceMatcher.search(Automaton.fromRegex(ast), k);
+                EditDistanceMatcher backwards = EditDistanceMatcher.backwards(Automaton.fromRegex(ast), k);
+                assertEquals(accepts(edit, ""), search.acceptsEmptyWord(), regex + " k=" + k);
+                for(int j = 0; j < 20; j++) {
+                    String word = DerivativesTest.randomWord(random, 12);
+                    String message = regex + " k=" + k + " on '" + word + "'";
+                    assertEquals(prefixed.run(word, true), search.run(word, true), message);
+                    assertEquals(prefixed.run(word, false), search.run(word, false), message);
+                    // anchored at the start, the reversed prefixes of the word against the pattern
+                    int expected = -1;
+                    for(int end = 0; end <= word.length() && expected == -1; end++) {
+                        if(accepts(edit, new StringBuilder(word.substring(0, end)).reverse())) {
+                            expected = end;
+                        }
+                    }
+                    assertEquals(expected, backwards.run(word, true), message);
+                }
+            }
+        }
+    }
+
+    @Test
+    void shortestMatchAgreesWithBruteForce() throws Exception {
+        Random random = new Random(8);
+        for(int i = 0; i < 400; i++) {
+            String regex = i % 2 == 0 ? DerivativesTest.randomRegex(random, 0) : randomLongRegex(random);
+            CommonTree ast = DerivativesTest.parse(regex);
+            for(int k = 0; k <= 2; k++) {
+                Automaton edit = editAutomaton(ast, k);
+                EditDistanceMatcher matcher = EditDistanceMatcher.search(Automaton.fromRegex(ast), k);
+                if(matcher.acceptsEmptyWord()) {
+                    assertThrows(AssertionError.class, () -> matcher.shortestMatch("ab"), regex + " k=" + k);
+                    continue;
+                }
+                for(int j = 0; j < 20; j++) {
+                    String text = DerivativesTest.randomWord(random, 16);
+                    String message = regex + " k=" + k + " on '" + text + "'";
+                    Match expected = bruteForceShortestMatch(edit, text);
+                    assertEquals(describe(expected), describe(matcher.shortestMatch(text)), message);
+                    if(k == 0) {
+                        // task 3 searches forward with the prefixed automaton and reads every match backwards
+                        Engine forward = Automaton.fromRegexWithPrefix(ast).engine();
+                        Engine backward = EditDistanceMatcher.backwards(Automaton.fromRegex(ast), 0);
+                        assertEquals(describe(expected), describe(Main.shortestMatch(forward, backward, text)), message);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void shortestMatchKeepsTheFirstOfEqualLength() throws Exception {
+        EditDistanceMatcher matcher = EditDistanceMatcher.search(Automaton.fromRegex(DerivativesTest.parse("ab|ba")), 0);
+        assertEquals("[1, 3)", describe(matcher.shortestMatch("xabxbax")));
+        // the restart behind the end of the first match hides the overlapping one
+        assertEquals("[0, 2)", describe(matcher.shortestMatch("aba")));
+        assertNull(matcher.shortestMatch("aaaa"));
+    }
+}
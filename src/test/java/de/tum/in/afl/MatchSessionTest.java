@@ -0,0 +1,176 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchSessionTest {
+
+    private static final MatchSession.Listener ANY = (start, end) -> true;
+
+    private static MatchSession.Listener record(List<String> matches) {
+        return (start, end) -> matches.add(start + "-" + end);
+    }
+
+    private static String describe(long[] match) {
+        return match == null ? "null" : "[" + match[0] + ", " + match[1] + ")";
+    }
+
+    private static String describe(Match match) {
+        return match == null ? "null" : "[" + match.start + ", " + match.end + ")";
+    }
+
+    // the chunk through one of the feed methods, picked by the position it starts at
+    private static void feed(MatchSession session, String text, int from, int to) {
+        switch(from % 3) {
+            case 0:
+                session.feed(text.toCharArray(), from, to);
+                break;
+            case 1:
+                session.feed(text.subSequence(from, to));
+                break;
+            default:
+                session.feed(ByteBuffer.wrap(text.substring(from, to).getBytes(StandardCharsets.ISO_8859_1)));
+        }
+    }
+
+    private static Object roundTrip(Object snapshot) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(snapshot);
+        }
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+
+    @Test
+    void splittingTheTextChangesNothing() throws Exception {
+        Random random = new Random(22);
+        for(int i = 0; i < 200; i++) {
+            String regex = i % 2 == 0 ? DerivativesTest.randomRegex(random, 0)
+                    : EditDistanceMatcherTest.randomLongRegex(random);
+            CommonTree ast = DerivativesTest.parse(regex);
+            Automaton pattern = Automaton.fromRegex(ast);
+            for(int k = 0; k <= 2; k++) {
+                EditDistanceMatcher matcher = EditDistanceMatcher.search(pattern, k);
+                if(matcher.acceptsEmptyWord()) {
+                    continue;
+                }
+                String text = DerivativesTest.randomWord(random, 16);
+                String expected = describe(matcher.shortestMatch(text)) + " " + matcher.run(text, true);
+                List<String> expectedMatches = new ArrayList<>();
+                MatchSession.of(pattern, k, record(expectedMatches)).feed(text);
+                for(int split = 0; split <= text.length(); split++) {
+                    String message = regex + " k=" + k + " on '" + text + "' split at " + split;
+                    List<String> matches = new ArrayList<>();
+                    MatchSession session = MatchSession.of(pattern, k, record(matches));
+                    feed(session, text, 0, split);
+                    MatchSession.Snapshot snapshot = session.snapshot();
+                    int reported = matches.size();
+                    feed(session, text, split, text.length());
+                    assertEquals(expected, describe(session.shortestMatch()) + " " + session.firstMatchEnd(), message);
+                    assertEquals(expectedMatches, matches, message);
+
+                    // the rest of the text on another session of the same pattern
+                    List<String> restored = new ArrayList<>(matches.subList(0, reported));
+                    MatchSession resumed = MatchSession.of(pattern, k, record(restored));
+                    resumed.restore(split % 2 == 0 ? snapshot : (MatchSession.Snapshot) roundTrip(snapshot));
+                    assertEquals(split, resumed.offset(), message);
+                    feed(resumed, text, split, text.length());
+                    assertEquals(expected, describe(resumed.shortestMatch()) + " " + resumed.firstMatchEnd(), message);
+                    assertEquals(expectedMatches, restored, message);
+                }
+            }
+        }
+    }
+
+    @Test
+    void rebasingChangesNothing() throws Exception {
+        Random random = new Random(23);
+        int rebased = 0;
+        for(int i = 0; i < 200; i++) {
+            String regex = EditDistanceMatcherTest.randomLongRegex(random);
+            Automaton pattern = Automaton.fromRegex(DerivativesTest.parse(regex));
+            int k = random.nextInt(3);
+            EditDistanceMatcher matcher = EditDistanceMatcher.search(pattern, k);
+            String text = DerivativesTest.randomWord(random, 80);
+            MatchSession session = MatchSession.of(pattern, k, ANY);
+            session.rebaseEvery(8);
+            try {
+                session.feed(text);
+            } catch(IllegalStateException e) {
+                // a thread that started at the base is still alive 8 characters later
+                continue;
+            }
+            if(text.length() >= 8) {
+                rebased++;
+            }
+            String message = regex + " k=" + k + " on '" + text + "'";
+            assertEquals(describe(matcher.shortestMatch(text)), describe(session.shortestMatch()), message);
+            assertEquals(matcher.run(text, true), session.firstMatchEnd(), message);
+        }
+        assertTrue(rebased > 100, "only " + rebased + " sessions were rebased");
+    }
+
+    @Test
+    void snapshotsOfOtherPatternsAreRejected() throws Exception {
+        // the same number of states, only the letters differ
+        Automaton ab = Automaton.fromRegex(DerivativesTest.parse("a(b|c)*d"));
+        Automaton ac = Automaton.fromRegex(DerivativesTest.parse("a(b|c)*a"));
+        assertEquals(ab.table().size(), ac.table().size());
+        MatchSession session = MatchSession.of(ab, 1, ANY);
+        session.feed("xxabbc");
+        MatchSession.Snapshot snapshot = session.snapshot();
+        MatchSession.of(ab, 1, ANY).restore(snapshot);
+        assertThrows(IllegalArgumentException.class, () -> MatchSession.of(ac, 1, ANY).restore(snapshot));
+        assertThrows(IllegalArgumentException.class, () -> MatchSession.of(ab, 0, ANY).restore(snapshot));
+        Automaton other = Automaton.fromRegex(DerivativesTest.parse("ab"));
+        assertThrows(IllegalArgumentException.class, () -> MatchSession.of(other, 1, ANY).restore(snapshot));
+    }
+
+    @Test
+    void damagedSnapshotsAreRejected() throws Exception {
+        Automaton pattern = Automaton.fromRegex(DerivativesTest.parse("a(b|c)*d"));
+        MatchSession session = MatchSession.of(pattern, 1, ANY);
+        session.feed("xxabbc");
+        Field threads = MatchSession.Snapshot.class.getDeclaredField("threads");
+        threads.setAccessible(true);
+        Field base = MatchSession.Snapshot.class.getDeclaredField("base");
+        base.setAccessible(true);
+
+        // a state the pattern does not have
+        MatchSession.Snapshot snapshot = session.snapshot();
+        ((int[]) threads.get(snapshot))[0] = pattern.table().size();
+        assertThrows(IllegalArgumentException.class, () -> MatchSession.of(pattern, 1, ANY).restore(snapshot));
+
+        // a thread that starts behind the offset
+        MatchSession.Snapshot late = session.snapshot();
+        ((int[]) threads.get(late))[1] = 500;
+        assertThrows(IllegalArgumentException.class, () -> MatchSession.of(pattern, 1, ANY).restore(late));
+
+        // threads that do not fit the edit distance
+        MatchSession.Snapshot cut = session.snapshot();
+        int[] saved = (int[]) threads.get(cut);
+        threads.set(cut, Arrays.copyOf(saved, saved.length - 1));
+        assertThrows(IllegalArgumentException.class, () -> MatchSession.of(pattern, 1, ANY).restore(cut));
+
+        // a base behind the offset
+        MatchSession.Snapshot moved = session.snapshot();
+        base.setLong(moved, 100);
+        assertThrows(IllegalArgumentException.class, () -> MatchSession.of(pattern, 1, ANY).restore(moved));
+    }
+}
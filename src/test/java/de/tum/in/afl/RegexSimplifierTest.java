@@ -0,0 +1,42 @@
+package de.tum.in.afl;
+
+import org.antlr.runtime.tree.CommonTree;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RegexSimplifierTest {
+
+    // the rewritten AST against the DFA the derivatives build from the original one
+    private static void assertSameLanguage(String regex, Random random) throws Exception {
+        CommonTree ast = DerivativesTest.parse(regex);
+        Automaton derivatives = Automaton.fromRegexByDerivatives(ast);
+        CommonTree simplified = RegexSimplifier.simplify(ast);
+        Automaton rewritten = Automaton.thompson(simplified).removeEpsilons();
+        assertEquals(derivatives.minimize().table().size(), rewritten.toDFA().minimize().table().size(), regex);
+        assertTrue(RegexSimplifier.thompsonStates(simplified) <= RegexSimplifier.thompsonStates(ast), regex);
+        for(int j = 0; j < 40; j++) {
+            String word = DerivativesTest.randomWord(random, 12);
+            assertEquals(derivatives.run(word), rewritten.run(word), regex + " on '" + word + "'");
+        }
+    }
+
+    @Test
+    void rewritingKeepsTheLanguage() throws Exception {
+        Random random = new Random(25);
+        for(int i = 0; i < 3000; i++) {
+            assertSameLanguage(DerivativesTest.randomRegex(random, 0), random);
+        }
+    }
+
+    @Test
+    void emptySetAndNestedStars() throws Exception {
+        Random random = new Random(7);
+        for(String regex : new String[]{"/", "a/|b", "(/)*", "((a)*)*", "(@|a|(b)*)*", "ab|ac|a", "ba|ca|a@",
+                "(a|/)(b|@)", "a(b|c)*d|a(b|c)*e"}) {
+            assertSameLanguage(regex, random);
+        }
+    }
+}